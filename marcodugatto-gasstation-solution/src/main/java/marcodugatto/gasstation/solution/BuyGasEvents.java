@@ -0,0 +1,104 @@
+package marcodugatto.gasstation.solution;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * Java Flight Recorder events covering the phases of {@link MyGasStation#buyGas(GasType, double, double)}.
+ * 
+ * Every phase has its own event type so that it can be enabled and given a threshold independently
+ * (e.g. with a custom .jfc file or -XX:StartFlightRecording settings). When JFR is not recording
+ * the events are never committed and their cost is close to zero.
+ *
+ */
+final class BuyGasEvents {
+	
+	private BuyGasEvents() {
+	}
+	
+	/**
+	 * Fields shared by all the buyGas phase events.
+	 */
+	@Category({"Gas Station", "Buy Gas"})
+	@StackTrace(false)
+	abstract static class BuyGasPhaseEvent extends Event {
+		
+		@Label("Gas Type")
+		String gasType;
+		
+		@Label("Liters")
+		double amountInLiters;
+		
+		@Label("Pump Id")
+		@Description("Id of the pump used in the pump registry, or -1 if no pump was involved")
+		int pumpId;
+		
+		@Label("Retry Count")
+		@Description("Number of times the pumps have been scanned again because all the suitable ones were busy")
+		int retryCount;
+		
+		/**
+		 * End the timing of this event and commit it if it lasted longer than its threshold.
+		 */
+		void end(GasType type, double amountInLiters, int pumpId, int retryCount) {
+			end();
+			if(shouldCommit()) {
+				this.gasType = type.name();
+				this.amountInLiters = amountInLiters;
+				this.pumpId = pumpId;
+				this.retryCount = retryCount;
+				commit();
+			}
+		}
+	}
+	
+	@Name("marcodugatto.gasstation.BuyGas.PriceCheck")
+	@Label("Price Check")
+	@Threshold("1 ms")
+	static final class PriceCheck extends BuyGasPhaseEvent {
+	}
+	
+	@Name("marcodugatto.gasstation.BuyGas.PumpScan")
+	@Label("Pump Scan")
+	@Description("Time spent looking for a free pump with enough gas, including retries")
+	@Threshold("5 ms")
+	static final class PumpScan extends BuyGasPhaseEvent {
+	}
+	
+	@Name("marcodugatto.gasstation.BuyGas.PumpLockContention")
+	@Label("Pump Lock Contention")
+	@Description("Time spent spinning on busy pump locks, from the first failed tryLock until a pump is locked or the sale is cancelled")
+	@Threshold("5 ms")
+	static final class PumpLockContention extends BuyGasPhaseEvent {
+		
+		@Label("Failed Lock Attempts")
+		int failedLockAttempts;
+	}
+	
+	@Name("marcodugatto.gasstation.BuyGas.PumpReservation")
+	@Label("Pump Reservation")
+	@Description("Time a starving customer spent waiting for the pump it reserved")
+	@Threshold("0 ms")
+	static final class PumpReservation extends BuyGasPhaseEvent {
+	}
+	
+	@Name("marcodugatto.gasstation.BuyGas.Pumping")
+	@Label("Pumping")
+	@Threshold("10 ms")
+	static final class Pumping extends BuyGasPhaseEvent {
+	}
+	
+	@Name("marcodugatto.gasstation.BuyGas.StatisticsLock")
+	@Label("Statistics Lock Wait")
+	@Description("Time spent waiting to acquire the station statistics lock")
+	@Threshold("1 ms")
+	static final class StatisticsLock extends BuyGasPhaseEvent {
+	}
+
+}
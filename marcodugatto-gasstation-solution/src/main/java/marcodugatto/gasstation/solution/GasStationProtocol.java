@@ -0,0 +1,105 @@
+package marcodugatto.gasstation.solution;
+
+import java.nio.ByteBuffer;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * The binary protocol spoken between the pump terminals and the {@link GasStationServer}.
+ *
+ * Every message is a frame made of a 2 bytes unsigned length, followed by that many bytes of body.
+ * All numbers are big endian, gas types are sent as the ordinal of {@link GasType}.
+ * <pre>
+ * request body:  requestId (int) | opcode (byte) | payload
+ *   BUY        gasType (byte) | amountInLiters (double) | maxPricePerLiter (double)
+ *   GET_PRICE  gasType (byte)
+ *   SET_PRICE  gasType (byte) | price (double)
+ *   GET_STATS  -
+ *
+ * response body: requestId (int) | status (byte) | payload (only if status is OK)
+ *   BUY        priceToPay (double)
+ *   GET_PRICE  price (double)
+ *   SET_PRICE  -
+ *   GET_STATS  revenue (double) | sales (int) | cancellationsNoGas (int) | cancellationsTooExpensive (int)
+ * </pre>
+ * Terminals may send several requests without waiting for the responses; responses can come back
+ * in any order and are matched to the requests by their id.
+ *
+ */
+public final class GasStationProtocol {
+
+	public static final byte BUY = 1;
+	public static final byte GET_PRICE = 2;
+	public static final byte SET_PRICE = 3;
+	public static final byte GET_STATS = 4;
+
+	public static final byte OK = 0;
+	public static final byte NOT_ENOUGH_GAS = 1;
+	public static final byte GAS_TOO_EXPENSIVE = 2;
+	public static final byte BAD_REQUEST = 3;
+
+	/**
+	 * Size of the frame length prefix.
+	 */
+	public static final int LENGTH_SIZE = 2;
+
+	private GasStationProtocol() {
+	}
+
+	/**
+	 * @return a BUY request frame, ready to be written
+	 */
+	public static ByteBuffer buyRequest(int requestId, GasType type, double amountInLiters, double maxPricePerLiter) {
+		ByteBuffer frame = requestFrame(requestId, BUY, 1 + 8 + 8);
+		frame.put((byte) type.ordinal()).putDouble(amountInLiters).putDouble(maxPricePerLiter);
+		return frame.flip();
+	}
+
+	/**
+	 * @return a GET_PRICE request frame, ready to be written
+	 */
+	public static ByteBuffer getPriceRequest(int requestId, GasType type) {
+		ByteBuffer frame = requestFrame(requestId, GET_PRICE, 1);
+		frame.put((byte) type.ordinal());
+		return frame.flip();
+	}
+
+	/**
+	 * @return a SET_PRICE request frame, ready to be written
+	 */
+	public static ByteBuffer setPriceRequest(int requestId, GasType type, double price) {
+		ByteBuffer frame = requestFrame(requestId, SET_PRICE, 1 + 8);
+		frame.put((byte) type.ordinal()).putDouble(price);
+		return frame.flip();
+	}
+
+	/**
+	 * @return a GET_STATS request frame, ready to be written
+	 */
+	public static ByteBuffer getStatsRequest(int requestId) {
+		return requestFrame(requestId, GET_STATS, 0).flip();
+	}
+
+	/**
+	 * Allocate a frame and write its length and request header.
+	 */
+	private static ByteBuffer requestFrame(int requestId, byte opcode, int payloadSize) {
+		int bodySize = 4 + 1 + payloadSize;
+		ByteBuffer frame = ByteBuffer.allocate(LENGTH_SIZE + bodySize);
+		frame.putShort((short) bodySize).putInt(requestId).put(opcode);
+		return frame;
+	}
+
+	/**
+	 * Allocate a response frame and write its length and response header.
+	 *
+	 * @return the frame, positioned at the start of the payload
+	 */
+	static ByteBuffer responseFrame(int requestId, byte status, int payloadSize) {
+		int bodySize = 4 + 1 + payloadSize;
+		ByteBuffer frame = ByteBuffer.allocate(LENGTH_SIZE + bodySize);
+		frame.putShort((short) bodySize).putInt(requestId).put(status);
+		return frame;
+	}
+
+}
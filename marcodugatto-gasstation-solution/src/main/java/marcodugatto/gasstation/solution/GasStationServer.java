@@ -0,0 +1,478 @@
+package marcodugatto.gasstation.solution;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.bigpoint.assessment.gasstation.GasStation;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+/**
+ * A non-blocking TCP front end giving pump terminals access to a {@link GasStation}.
+ *
+ * A single selector thread accepts the connections, reads the request frames and writes the responses
+ * (see {@link GasStationProtocol}). Sales and price changes are executed by a pool of worker threads, so a sale
+ * waiting for a pump never blocks the selector; price and statistics queries are answered right away by the
+ * selector thread, so they don't queue behind the sales. The gas station must therefore allow its prices and
+ * statistics to be read while sales and price changes are in progress.
+ *
+ * Every connection can pipeline requests, but the server stops reading from a terminal while it has too many
+ * requests on the workers or too many responses it hasn't read yet.
+ *
+ */
+public class GasStationServer implements Closeable {
+
+	/**
+	 * Default number of worker threads executing the requests.
+	 */
+	private static final int DEFAULT_WORKER_THREADS = 64;
+
+	/**
+	 * Size of the read buffer of every connection, kept small since requests are tiny and there may be thousands of terminals.
+	 * Larger frames are rejected.
+	 */
+	private static final int READ_BUFFER_SIZE = 1024;
+
+	/**
+	 * Maximum number of requests of a connection being executed or waiting for a worker.
+	 * Once reached, nothing more is read from the terminal until one of them completes.
+	 */
+	private static final int MAX_IN_FLIGHT_REQUESTS = 32;
+
+	/**
+	 * Maximum number of responses of a connection waiting to be written.
+	 * Once reached, nothing more is read from the terminal until it reads its responses.
+	 */
+	private static final int MAX_PENDING_RESPONSES = 64;
+
+	/**
+	 * The gas station serving the requests.
+	 */
+	private final GasStation gasStation;
+
+	/**
+	 * Executes the sales and price changes outside of the selector thread.
+	 */
+	private final Executor workers;
+
+	/**
+	 * The worker pool created by this server, shut down on close, or null if the workers were provided.
+	 */
+	private final ExecutorService ownWorkers;
+
+	/**
+	 * Connections with responses waiting to be written, handed from the workers to the selector thread.
+	 */
+	private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+
+	private Selector selector;
+
+	private ServerSocketChannel serverChannel;
+
+	private Thread selectorThread;
+
+	private volatile boolean running;
+
+	/**
+	 * @param gasStation
+	 *            the gas station serving the requests
+	 */
+	public GasStationServer(GasStation gasStation) {
+		this.gasStation = gasStation;
+		this.ownWorkers = Executors.newFixedThreadPool(DEFAULT_WORKER_THREADS);
+		this.workers = ownWorkers;
+	}
+
+	/**
+	 * @param gasStation
+	 *            the gas station serving the requests
+	 * @param workers
+	 *            the executor running the requests
+	 */
+	public GasStationServer(GasStation gasStation, Executor workers) {
+		this.gasStation = gasStation;
+		this.ownWorkers = null;
+		this.workers = workers;
+	}
+
+	/**
+	 * Bind the server and start serving the terminals on a new selector thread.
+	 *
+	 * @param address
+	 *            the address to listen on; use port 0 to pick any free port
+	 * @return the address the server is listening on
+	 * @throws IOException
+	 *             if the server can't be bound
+	 */
+	public synchronized InetSocketAddress start(InetSocketAddress address) throws IOException {
+		if(running) {
+			throw new IllegalStateException("The server is already running");
+		}
+
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(address);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		running = true;
+		selectorThread = new Thread(this::selectLoop, "gas-station-selector");
+		selectorThread.start();
+
+		return (InetSocketAddress) serverChannel.getLocalAddress();
+	}
+
+	/**
+	 * Stop the server, closing all the connections.
+	 * Requests still being executed complete, but their responses are discarded.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(!running) {
+			return;
+		}
+
+		running = false;
+		selector.wakeup();
+
+		try {
+			selectorThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		for (SelectionKey key : selector.keys()) {
+			key.channel().close();
+		}
+		selector.close();
+
+		if(ownWorkers != null) {
+			ownWorkers.shutdown();
+		}
+	}
+
+	private void selectLoop() {
+		try {
+			while(running) {
+				selector.select();
+
+				/*
+				 * Register interest in writing for the connections the workers have responded on,
+				 * and resume reading from those that were waiting for their requests to complete.
+				 */
+				Connection connection;
+				while((connection = pendingWrites.poll()) != null) {
+					if(connection.key.isValid()) {
+						try {
+							connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+							resumeReading(connection);
+						} catch (IOException | RuntimeException e) {
+							closeConnection(connection.key);
+						}
+					}
+				}
+
+				Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+				while(selectedKeys.hasNext()) {
+					SelectionKey key = selectedKeys.next();
+					selectedKeys.remove();
+
+					try {
+						if(key.isAcceptable()) {
+							accept();
+						}
+						else {
+							if(key.isReadable()) {
+								read((Connection) key.attachment());
+							}
+							if(key.isValid() && key.isWritable()) {
+								write((Connection) key.attachment());
+							}
+						}
+					} catch (IOException | RuntimeException e) {
+						/*
+						 * A broken connection, or one whose requests can't be executed (e.g. the workers reject them),
+						 * only affects its own terminal. A failed accept only affects the terminal trying to connect.
+						 */
+						if(key.attachment() != null) {
+							closeConnection(key);
+						}
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			if(running) {
+				System.err.println("Gas station server stopped: " + e);
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if(channel == null) {
+			return;
+		}
+
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		key.attach(new Connection(key, channel));
+	}
+
+	/**
+	 * Read what is available on a connection and dispatch the complete request frames.
+	 */
+	private void read(Connection connection) throws IOException {
+		if(connection.channel.read(connection.readBuffer) < 0) {
+			throw new IOException("Connection closed by the terminal");
+		}
+
+		dispatch(connection);
+	}
+
+	/**
+	 * Dispatch the complete request frames received on a connection: sales and price changes go to the workers, the other
+	 * requests are executed right away. Stop reading from the terminal once it has {@link #MAX_IN_FLIGHT_REQUESTS} requests
+	 * on the workers or {@link #MAX_PENDING_RESPONSES} responses to read; the frames left in the read buffer are dispatched
+	 * when reading resumes.
+	 */
+	private void dispatch(Connection connection) throws IOException {
+		ByteBuffer readBuffer = connection.readBuffer;
+		readBuffer.flip();
+
+		try {
+			while(readBuffer.remaining() >= GasStationProtocol.LENGTH_SIZE) {
+				int bodySize = Short.toUnsignedInt(readBuffer.getShort(readBuffer.position()));
+				if(GasStationProtocol.LENGTH_SIZE + bodySize > READ_BUFFER_SIZE) {
+					throw new IOException("Frame too large: " + bodySize + " bytes");
+				}
+				if(readBuffer.remaining() < GasStationProtocol.LENGTH_SIZE + bodySize) {
+					break;
+				}
+
+				if(!canRead(connection)) {
+					break;
+				}
+
+				byte opcode = bodySize > 4 ? readBuffer.get(readBuffer.position() + GasStationProtocol.LENGTH_SIZE + 4) : 0;
+				boolean onWorkers = opcode == GasStationProtocol.BUY || opcode == GasStationProtocol.SET_PRICE;
+
+				/*
+				 * Copy the body so the read buffer can be reused while the request is executed.
+				 */
+				readBuffer.position(readBuffer.position() + GasStationProtocol.LENGTH_SIZE);
+				ByteBuffer body = ByteBuffer.allocate(bodySize);
+				int bodyEnd = readBuffer.position() + bodySize;
+				ByteBuffer frameBody = readBuffer.duplicate();
+				frameBody.limit(bodyEnd);
+				body.put(frameBody).flip();
+				readBuffer.position(bodyEnd);
+
+				if(onWorkers) {
+					connection.inFlightRequests.incrementAndGet();
+					workers.execute(() -> {
+						ByteBuffer response = execute(body);
+						connection.inFlightRequests.decrementAndGet();
+						respond(connection, response);
+					});
+				}
+				else {
+					connection.pendingResponses.incrementAndGet();
+					connection.responses.add(execute(body));
+					connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+				}
+			}
+		} finally {
+			readBuffer.compact();
+		}
+
+		/*
+		 * A worker completing a request, or the terminal reading its responses, from now on has the selector thread
+		 * resume reading.
+		 */
+		if(!canRead(connection)) {
+			connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * @return true if the connection is below its limits of requests on the workers and responses waiting to be written
+	 */
+	private static boolean canRead(Connection connection) {
+		return connection.inFlightRequests.get() < MAX_IN_FLIGHT_REQUESTS && connection.pendingResponses.get() < MAX_PENDING_RESPONSES;
+	}
+
+	/**
+	 * Resume reading from a connection that had stopped at one of its limits, if it is back below them,
+	 * dispatching the frames already received.
+	 */
+	private void resumeReading(Connection connection) throws IOException {
+		if((connection.key.interestOps() & SelectionKey.OP_READ) == 0 && canRead(connection)) {
+			connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+			dispatch(connection);
+		}
+	}
+
+	/**
+	 * Drop a connection, whatever state it is in.
+	 */
+	private static void closeConnection(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// Ignore
+		}
+	}
+
+	/**
+	 * Write the pending responses of a connection, as far as the socket accepts them.
+	 */
+	private void write(Connection connection) throws IOException {
+		ByteBuffer response;
+		while((response = connection.responses.peek()) != null) {
+			connection.channel.write(response);
+			if(response.hasRemaining()) {
+				resumeReading(connection);
+				return;
+			}
+			connection.responses.poll();
+			connection.pendingResponses.decrementAndGet();
+		}
+
+		/*
+		 * Nothing left to write: a worker adding a response from now on will register the interest again.
+		 */
+		connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+
+		resumeReading(connection);
+	}
+
+	/**
+	 * Queue a response on a connection from a worker and have the selector thread write it.
+	 */
+	private void respond(Connection connection, ByteBuffer response) {
+		connection.pendingResponses.incrementAndGet();
+		connection.responses.add(response);
+		pendingWrites.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Execute a request on the gas station.
+	 *
+	 * @param body
+	 *            the body of the request frame
+	 * @return the response frame, ready to be written
+	 */
+	private ByteBuffer execute(ByteBuffer body) {
+		if(body.remaining() < 5) {
+			return GasStationProtocol.responseFrame(0, GasStationProtocol.BAD_REQUEST, 0).flip();
+		}
+
+		int requestId = body.getInt();
+		byte opcode = body.get();
+
+		try {
+			switch(opcode) {
+
+			case GasStationProtocol.BUY: {
+				GasType type = readGasType(body);
+				double amountInLiters = body.getDouble();
+				double maxPricePerLiter = body.getDouble();
+				try {
+					double priceToPay = gasStation.buyGas(type, amountInLiters, maxPricePerLiter);
+					return GasStationProtocol.responseFrame(requestId, GasStationProtocol.OK, 8).putDouble(priceToPay).flip();
+				} catch (NotEnoughGasException e) {
+					return GasStationProtocol.responseFrame(requestId, GasStationProtocol.NOT_ENOUGH_GAS, 0).flip();
+				} catch (GasTooExpensiveException e) {
+					return GasStationProtocol.responseFrame(requestId, GasStationProtocol.GAS_TOO_EXPENSIVE, 0).flip();
+				}
+			}
+
+			case GasStationProtocol.GET_PRICE: {
+				double price = gasStation.getPrice(readGasType(body));
+				return GasStationProtocol.responseFrame(requestId, GasStationProtocol.OK, 8).putDouble(price).flip();
+			}
+
+			case GasStationProtocol.SET_PRICE: {
+				GasType type = readGasType(body);
+				gasStation.setPrice(type, body.getDouble());
+				return GasStationProtocol.responseFrame(requestId, GasStationProtocol.OK, 0).flip();
+			}
+
+			case GasStationProtocol.GET_STATS: {
+				return GasStationProtocol.responseFrame(requestId, GasStationProtocol.OK, 8 + 4 + 4 + 4)
+						.putDouble(gasStation.getRevenue())
+						.putInt(gasStation.getNumberOfSales())
+						.putInt(gasStation.getNumberOfCancellationsNoGas())
+						.putInt(gasStation.getNumberOfCancellationsTooExpensive())
+						.flip();
+			}
+
+			default:
+				return GasStationProtocol.responseFrame(requestId, GasStationProtocol.BAD_REQUEST, 0).flip();
+			}
+		} catch (RuntimeException e) {
+			/*
+			 * Truncated payloads and unknown gas types end up here.
+			 */
+			return GasStationProtocol.responseFrame(requestId, GasStationProtocol.BAD_REQUEST, 0).flip();
+		}
+	}
+
+	private static GasType readGasType(ByteBuffer body) {
+		return GasType.values()[body.get()];
+	}
+
+	/**
+	 * The state of a terminal connection.
+	 */
+	private static final class Connection {
+
+		private final SelectionKey key;
+
+		private final SocketChannel channel;
+
+		/**
+		 * Bytes received and not yet parsed into requests; only used by the selector thread.
+		 */
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+		/**
+		 * Responses waiting to be written, in completion order.
+		 */
+		private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<ByteBuffer>();
+
+		/**
+		 * Number of requests dispatched to the workers and not responded yet.
+		 */
+		private final AtomicInteger inFlightRequests = new AtomicInteger();
+
+		/**
+		 * Number of responses in {@link #responses}, kept apart since the size of the queue is not constant-time.
+		 */
+		private final AtomicInteger pendingResponses = new AtomicInteger();
+
+		private Connection(SelectionKey key, SocketChannel channel) {
+			this.key = key;
+			this.channel = channel;
+		}
+	}
+
+}
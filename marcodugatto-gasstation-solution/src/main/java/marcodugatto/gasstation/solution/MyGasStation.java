@@ -1,8 +1,11 @@
 package marcodugatto.gasstation.solution;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import net.bigpoint.assessment.gasstation.GasPump;
@@ -19,14 +22,26 @@ import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
 class MyGasStation implements GasStation {
 	
 	/**
-	 * All the gas pumps present in this gas station.
+	 * Default time a customer can wait for a free pump before reserving one.
 	 */
-	private ArrayList<GasPump> gasPumps = new ArrayList<GasPump>();
+	static final long DEFAULT_STARVATION_THRESHOLD_MILLIS = 1000;
+	
+	/**
+	 * Initial and maximum pause between two scans of the pumps while they are all busy; the pause doubles at every scan.
+	 */
+	private static final long MIN_RETRY_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+	private static final long MAX_RETRY_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	/**
+	 * All the gas pumps present in this gas station, each with the lock managing concurrency on it.
+	 */
+	private final PumpRegistry pumpRegistry;
 	
 	/**
 	 * The costs of the various types of gas present in this station.
+	 * Prices can be changed (e.g. from a terminal) while customers are reading them.
 	 */
-	private HashMap<GasType, Double> gasPrices = new HashMap<>();
+	private ConcurrentHashMap<GasType, Double> gasPrices = new ConcurrentHashMap<>();
 	
 	/**
 	 * The total revenue generated.
@@ -49,28 +64,70 @@ class MyGasStation implements GasStation {
 	private int numberOfCancellationsTooExpensive;
 			
 	/**
-	 * Lock to manage concurrency on pumps
+	 * Lock to manage concurrency on the gas station statistics (i.e. number of sales)
 	 */
-	private ArrayList<ReentrantLock> pumpLocks = new ArrayList<ReentrantLock>(); 
+	private ReentrantLock stationStatisticsLock = new ReentrantLock();
 	
 	/**
-	 * Lock to manage concurrency on the gas station statistics (i.e. number of sales)
+	 * Publisher of the sales, cancellations and price changes happening in this station.
 	 */
-	private ReentrantLock stationStatisticsLock = new ReentrantLock();
+	private TransactionEventPublisher transactionEvents = new TransactionEventPublisher();
+	
+	/**
+	 * How long a customer can wait for a free pump before reserving one, in nanoseconds.
+	 */
+	private volatile long starvationThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_STARVATION_THRESHOLD_MILLIS);
+	
+	
+	/**
+	 * Create a gas station without pumps.
+	 */
+	public MyGasStation() {
+		this(new PumpRegistry());
+	}
 	
+	/**
+	 * Create a gas station selling from the pumps of a registry.
+	 * Pumps added to or retired from the registry are immediately taken into account, even while sales are in progress.
+	 * 
+	 * @param pumpRegistry
+	 *            the pumps of this station
+	 */
+	public MyGasStation(PumpRegistry pumpRegistry) {
+		this.pumpRegistry = pumpRegistry;
+	}
 	
 	/**
 	 * Add a gas pump to this station.
-	 * This is used to set up this station.
+	 * This can be done while sales are in progress.
 	 * 
 	 * @param pump
 	 *            the gas pump
 	 */
 	public void addGasPump(GasPump pump) {
-		gasPumps.add(pump);
-		
-		ReentrantLock currentLock = new ReentrantLock(); 
-		pumpLocks.add(currentLock);
+		pumpRegistry.add(pump);
+	}
+	
+	/**
+	 * Set how long a customer can wait for a free pump before reserving one.
+	 * 
+	 * Once reserved, no other customer can start a transaction on the pump, so a customer never waits much longer than
+	 * this threshold plus the duration of the transaction in progress on the reserved pump, whatever the size of its order.
+	 * 
+	 * @param threshold
+	 *            the maximum time to wait before reserving a pump
+	 * @param unit
+	 *            the unit of the threshold
+	 */
+	public void setStarvationThreshold(long threshold, TimeUnit unit) {
+		starvationThresholdNanos = unit.toNanos(threshold);
+	}
+	
+	/**
+	 * @return the registry of the pumps of this station, to add or retire pumps while trading
+	 */
+	public PumpRegistry getPumpRegistry() {
+		return pumpRegistry;
 	}
 
 	/**
@@ -79,9 +136,10 @@ class MyGasStation implements GasStation {
 	 * @return A collection of all gas pumps.
 	 */
 	public Collection<GasPump> getGasPumps() {
-		ArrayList<GasPump> returnCollection = new ArrayList<GasPump>(gasPumps.size());
-		for (GasPump gasPump : gasPumps) {
-			returnCollection.add(new GasPump(gasPump.getGasType(), gasPump.getRemainingAmount()));
+		PumpRegistry.Pump[] pumps = pumpRegistry.snapshot();
+		ArrayList<GasPump> returnCollection = new ArrayList<GasPump>(pumps.length);
+		for (PumpRegistry.Pump pump : pumps) {
+			returnCollection.add(new GasPump(pump.getGasPump().getGasType(), pump.getGasPump().getRemainingAmount()));
 		}
 		return returnCollection;
 	}	
@@ -111,128 +169,342 @@ class MyGasStation implements GasStation {
 		 * First of all check if the max price that the customer wants to pay is less than the price of the gas type he wants.
 		 * If so, increase "numberOfCancellationsTooExpensive" and throw the corresponding exception. 
 		 */
-		if(maxPricePerLiter < this.getPrice(type)) {
-			stationStatisticsLock.lock();
+		BuyGasEvents.PriceCheck priceCheckEvent = new BuyGasEvents.PriceCheck();
+		priceCheckEvent.begin();
+		double pricePerLiter = this.getPrice(type);
+		boolean tooExpensive = maxPricePerLiter < pricePerLiter;
+		priceCheckEvent.end(type, amountInLiters, -1, 0);
+		
+		if(tooExpensive) {
+			lockStationStatistics(type, amountInLiters, -1, 0);
 			numberOfCancellationsTooExpensive++;
 			stationStatisticsLock.unlock();
+			transactionEvents.publish(TransactionEvent.Kind.CANCELLATION_TOO_EXPENSIVE, type, amountInLiters, pricePerLiter, 0.0);
 			throw new GasTooExpensiveException();
 		}
 		
 		/*
-		 * Local list of the pumps present in the gas station, used to keep track of the availability of gas for the current transaction in every pump.
-		 * Every element is initialised to true, to try to make the transaction on every pump. 
+		 * The pumps present in the gas station, taken again from the registry at every scan so that a waiting customer
+		 * uses the pumps added in the meantime, and doesn't wait for the retired ones.
 		 */
-		ArrayList<Boolean> usablePumps = new ArrayList<Boolean>();
-		for (int i = 0; i < gasPumps.size(); i++) {
-			usablePumps.add(true);
-		}
+		PumpRegistry.Pump[] pumps = pumpRegistry.snapshot();
 		
 		/*
-		 * Local variable to keep track of the transaction status.
+		 * Local set of the pumps which can't serve the current transaction (wrong type of gas, not enough gas, or retired),
+		 * to avoid checking them again. Pumps are identified by themselves, not by their position, since it changes
+		 * when pumps are added or retired.
 		 */
-		Boolean transactionMade = false;
+		HashSet<PumpRegistry.Pump> unusablePumps = new HashSet<PumpRegistry.Pump>();
+		
+		/*
+		 * Local variable to keep track of the pump locked for this transaction, if any.
+		 */
+		PumpRegistry.Pump lockedPump = null;
+		
+		/*
+		 * Local variable to keep track of how long this customer has been waiting for a pump, to detect starvation.
+		 */
+		long waitStartNanos = System.nanoTime();
+		
+		/*
+		 * Local variable to keep track of the pause before the next scan of the pumps, if they are all busy.
+		 */
+		long retryBackoffNanos = MIN_RETRY_BACKOFF_NANOS;
+		
+		/*
+		 * Local variables to keep track of how hard it was to find a free pump, reported by the JFR events.
+		 * The contention event starts at the first failed attempt to lock a pump.
+		 */
+		int retryCount = 0;
+		int failedLockAttempts = 0;
+		BuyGasEvents.PumpScan scanEvent = new BuyGasEvents.PumpScan();
+		BuyGasEvents.PumpLockContention contentionEvent = new BuyGasEvents.PumpLockContention();
+		scanEvent.begin();
 		
 		/*
 		 * Iterate on the gas pumps collection to find a free pump to make the transaction on.
 		 */
-		for (int i = 0; i < gasPumps.size() && !transactionMade ; i++) {
+		for (int i = 0; i < pumps.length && lockedPump == null ; i++) {
 						
 			/*
-			 * If the current gas pump hasn't the correct type of gas for this transaction set the corresponding 
-			 * element in "usablePumps" to false to avoid checking again for this pump availability.
+			 * If the current gas pump hasn't the correct type of gas for this transaction add it to "unusablePumps"
+			 * to avoid checking again for this pump availability.
 			 */
-			if(gasPumps.get(i).getGasType() == type) {
+			if(pumps[i].getGasPump().getGasType() == type && !pumps[i].isRetired()) {
 								
 				/*
 				 * Check if this pump wasn't already set as unavailable due to lack of enough gas.
 				 */
-				if(usablePumps.get(i)) {
+				if(!unusablePumps.contains(pumps[i])) {
 
 					/*
 					 * If this pump has enough gas for the current transaction keep going, otherwise 
-					 * set the corresponding element in "usablePumps" to false to avoid checking again for this pump availability.
+					 * add it to "unusablePumps" to avoid checking again for this pump availability.
 					 */
-					if(gasPumps.get(i).getRemainingAmount() >= amountInLiters) {
+					if(pumps[i].getGasPump().getRemainingAmount() >= amountInLiters) {
 												
 						/*
-						 * If the current pump is free for a transaction, lock it to prevent other threads from using it and execute the transaction.
+						 * If the current pump is free for a transaction (and not reserved by a starving customer), lock it to prevent
+						 * other threads from using it and execute the transaction.
 						 * Otherwise go on with the for loop and check the next pump.
 						 */
-						if(pumpLocks.get(i).tryLock()) {
-							
-							try {
-								gasPumps.get(i).pumpGas(amountInLiters);
-								
-							} finally {
-								/*
-								 * When the transaction has finished unlock the pump for other threads to eventually use it.
-								 */
-								transactionMade = true;
-								pumpLocks.get(i).unlock();
-							}
-							
-							/*
-							 * If the transaction has been completed lock the station statistics to update them.
-							 * If the statistics are already locked by another thread wait for it to unlock them and then do the update.
-							 */
-							if(transactionMade) {
-								
-								Double priceToPay = amountInLiters * getPrice(type);
-								
-								stationStatisticsLock.lock();
-								numberOfSales++;
-								totalRevenue += priceToPay;
-								stationStatisticsLock.unlock();
-								
-								return priceToPay;
-							}
+						if(tryLockPump(pumps[i], amountInLiters)) {
+							lockedPump = pumps[i];
+						}
+						/*
+						 * The pump is busy: start timing the contention at the first failed attempt.
+						 */
+						else if(failedLockAttempts++ == 0) {
+							contentionEvent.begin();
 						}
 					}
 					/*
-					 * If there's not enough gas in this pump for the current transaction set the availability to false.
+					 * If there's not enough gas in this pump for the current transaction set it as unusable.
 					 */
 					else {
-						usablePumps.set(i, false);
+						unusablePumps.add(pumps[i]);
 					}
 				}
 			}
 			/*
-			 * If this pump hasn't the correct type of gas for the current transaction set the availability to false.
+			 * If this pump hasn't the correct type of gas for the current transaction (or has been retired) set it as unusable.
 			 */
 			else {
-				usablePumps.set(i, false);
+				unusablePumps.add(pumps[i]);
 			}
 			
 			/*
 			 * If this is the last gas pump and the current transaction is still pending check if there are any pumps available to try again.
-			 * If so, reset the gas pumps iterator and try again for all the available pumps.  
+			 * If so, reset the gas pumps iterator and try again for all the available pumps, as currently present in the registry.  
 			 * Otherwise, increase "numberOfCancellationsNoGas" and throw the corresponding exception. 
 			 */
-			if(i == gasPumps.size() - 1 && !transactionMade) {
+			if(i == pumps.length - 1 && lockedPump == null) {
 				
 				Boolean pumpsStillAvailable = false;
 				
-				for (int j = 0; j < usablePumps.size() && !pumpsStillAvailable; j++) {
+				pumps = pumpRegistry.snapshot();
+				for (int j = 0; j < pumps.length && !pumpsStillAvailable; j++) {
 					
-					if(usablePumps.get(j)) {
+					if(!unusablePumps.contains(pumps[j])) {
 						pumpsStillAvailable = true;
-						i = 0;
+						/*
+						 * -1 since the for loop increments the iterator before the next check, so that the first pump is tried again too.
+						 */
+						i = -1;
+						retryCount++;
 					}
 				}
 				
 				if(!pumpsStillAvailable) {
-					stationStatisticsLock.lock();
-					numberOfCancellationsNoGas++;
-					stationStatisticsLock.unlock();
-					throw new NotEnoughGasException();
+					scanEvent.end(type, amountInLiters, -1, retryCount);
+					if(failedLockAttempts > 0) {
+						contentionEvent.failedLockAttempts = failedLockAttempts;
+						contentionEvent.end(type, amountInLiters, -1, retryCount);
+					}
+					
+					throw cancelNoGas(type, amountInLiters, pricePerLiter, retryCount);
+				}
+				
+				/*
+				 * If this customer has been waiting for too long (e.g. a large order whose pumps keep being taken by small ones),
+				 * reserve a suitable pump and wait for it, so that no new customer can take it in the meantime.
+				 */
+				if(System.nanoTime() - waitStartNanos > starvationThresholdNanos) {
+					lockedPump = lockReservedPump(pumps, unusablePumps, type, amountInLiters, retryCount);
+				}
+				
+				/*
+				 * If no pump could be locked, give up the CPU for a while before trying again, longer at every scan, so that customers waiting
+				 * for a long sale don't keep the CPU busy.
+				 */
+				if(lockedPump == null) {
+					LockSupport.parkNanos(retryBackoffNanos);
+					retryBackoffNanos = Math.min(retryBackoffNanos * 2, MAX_RETRY_BACKOFF_NANOS);
 				}
 			}
 		}
 		
 		/*
-		 * Default return value, application should never get here.
+		 * The loop only ends with a locked pump or a cancellation, unless the station has no pumps at all.
 		 */
-		return 0.0;
+		if(lockedPump == null) {
+			throw cancelNoGas(type, amountInLiters, pricePerLiter, retryCount);
+		}
+		
+		scanEvent.end(type, amountInLiters, lockedPump.getId(), retryCount);
+		if(failedLockAttempts > 0) {
+			contentionEvent.failedLockAttempts = failedLockAttempts;
+			contentionEvent.end(type, amountInLiters, lockedPump.getId(), retryCount);
+		}
+		
+		BuyGasEvents.Pumping pumpingEvent = new BuyGasEvents.Pumping();
+		pumpingEvent.begin();
+		
+		try {
+			lockedPump.getGasPump().pumpGas(amountInLiters);
+			
+		} finally {
+			/*
+			 * When the transaction has finished unlock the pump for other threads to eventually use it.
+			 */
+			lockedPump.getLock().unlock();
+			pumpingEvent.end(type, amountInLiters, lockedPump.getId(), retryCount);
+		}
+		
+		/*
+		 * The transaction has been completed: lock the station statistics to update them.
+		 * If the statistics are already locked by another thread wait for it to unlock them and then do the update.
+		 */
+		/*
+		 * The customer pays the price accepted at the start of the transaction, even if it has changed since.
+		 */
+		Double priceToPay = amountInLiters * pricePerLiter;
+		
+		lockStationStatistics(type, amountInLiters, lockedPump.getId(), retryCount);
+		numberOfSales++;
+		totalRevenue += priceToPay;
+		stationStatisticsLock.unlock();
+		
+		transactionEvents.publish(TransactionEvent.Kind.SALE, type, amountInLiters, pricePerLiter, priceToPay);
+		
+		return priceToPay;
+	}
+	
+	/**
+	 * Record a transaction cancelled due to not enough gas being available.
+	 * 
+	 * @param type
+	 *            the type of gas of the current transaction
+	 * @param amountInLiters
+	 *            the amount of gas of the current transaction
+	 * @param pricePerLiter
+	 *            the price per liter of the gas at the start of the current transaction
+	 * @param retryCount
+	 *            the number of times the pumps have been scanned again for the current transaction
+	 * @return the exception to throw to the customer
+	 */
+	private NotEnoughGasException cancelNoGas(GasType type, double amountInLiters, double pricePerLiter, int retryCount) {
+		lockStationStatistics(type, amountInLiters, -1, retryCount);
+		numberOfCancellationsNoGas++;
+		stationStatisticsLock.unlock();
+		transactionEvents.publish(TransactionEvent.Kind.CANCELLATION_NO_GAS, type, amountInLiters, pricePerLiter, 0.0);
+		return new NotEnoughGasException();
+	}
+
+	/**
+	 * Try to lock a pump for a transaction.
+	 * The pump may have been retired or drained by another customer since it was checked: in that case it is left unlocked,
+	 * and the next scan of the pumps will mark it as unavailable. Pumps reserved by another customer are left alone.
+	 * 
+	 * @param pump
+	 *            the pump
+	 * @param amountInLiters
+	 *            the amount of gas of the current transaction
+	 * @return true if the pump is now locked by this thread and can serve the transaction
+	 */
+	private boolean tryLockPump(PumpRegistry.Pump pump, double amountInLiters) {
+		Thread customer = Thread.currentThread();
+		
+		if(!pump.isAvailableTo(customer) || !pump.getLock().tryLock()) {
+			return false;
+		}
+		
+		/*
+		 * The reservation is checked again once locked, in case a starving customer reserved the pump in the meantime.
+		 */
+		if(!pump.isAvailableTo(customer) || pump.isRetired() || pump.getGasPump().getRemainingAmount() < amountInLiters) {
+			pump.getLock().unlock();
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Reserve a suitable pump for a starving customer and wait until it can be locked.
+	 * 
+	 * Starving customers queue for the pump in the order they reserved it, and while the pump is reserved no other
+	 * customer can start a transaction on it, so the wait is bounded by the transactions of the customers ahead in line.
+	 * The pump with the shortest line is chosen and, among those, the one with the most gas, since it is the most
+	 * likely to still have enough gas once their transactions complete.
+	 * 
+	 * @param pumps
+	 *            the pumps of the station
+	 * @param unusablePumps
+	 *            the pumps which can't serve the current transaction, updated if the reserved pump has been drained
+	 * @param type
+	 *            the type of gas of the current transaction
+	 * @param amountInLiters
+	 *            the amount of gas of the current transaction
+	 * @param retryCount
+	 *            the number of times the pumps have been scanned again for the current transaction
+	 * @return the locked pump, or null if no pump is suitable or the reserved pump can't serve the transaction anymore
+	 */
+	private PumpRegistry.Pump lockReservedPump(PumpRegistry.Pump[] pumps, HashSet<PumpRegistry.Pump> unusablePumps, GasType type, double amountInLiters, int retryCount) {
+		Thread customer = Thread.currentThread();
+		
+		int reservedIndex = -1;
+		for (int i = 0; i < pumps.length; i++) {
+			if(!unusablePumps.contains(pumps[i]) && pumps[i].getGasPump().getGasType() == type && !pumps[i].isRetired()
+					&& pumps[i].getGasPump().getRemainingAmount() >= amountInLiters
+					&& (reservedIndex < 0 || pumps[i].getReservations() < pumps[reservedIndex].getReservations()
+							|| (pumps[i].getReservations() == pumps[reservedIndex].getReservations()
+									&& pumps[i].getGasPump().getRemainingAmount() > pumps[reservedIndex].getGasPump().getRemainingAmount()))) {
+				reservedIndex = i;
+			}
+		}
+		
+		/*
+		 * No suitable pump is left: the next scan will cancel the transaction.
+		 */
+		if(reservedIndex < 0) {
+			return null;
+		}
+		
+		PumpRegistry.Pump pump = pumps[reservedIndex];
+		
+		BuyGasEvents.PumpReservation reservationEvent = new BuyGasEvents.PumpReservation();
+		reservationEvent.begin();
+		
+		pump.reserve(customer);
+		try {
+			pump.awaitReservation(customer);
+			pump.getLock().lock();
+		} finally {
+			/*
+			 * Once locked the reservation isn't needed anymore: nobody else can use the pump until it is unlocked,
+			 * and the next customer in line waits for the lock.
+			 */
+			pump.releaseReservation(customer);
+			reservationEvent.end(type, amountInLiters, pump.getId(), retryCount);
+		}
+		
+		if(pump.isRetired() || pump.getGasPump().getRemainingAmount() < amountInLiters) {
+			pump.getLock().unlock();
+			unusablePumps.add(pump);
+			return null;
+		}
+		
+		return pump;
+	}
+	
+	/**
+	 * Lock the station statistics, recording a JFR event if the wait was longer than its threshold.
+	 * 
+	 * @param type
+	 *            the type of gas of the current transaction
+	 * @param amountInLiters
+	 *            the amount of gas of the current transaction
+	 * @param pumpId
+	 *            the id of the pump used by the current transaction, or -1 if none
+	 * @param retryCount
+	 *            the number of times the pumps have been scanned again for the current transaction
+	 */
+	private void lockStationStatistics(GasType type, double amountInLiters, int pumpId, int retryCount) {
+		BuyGasEvents.StatisticsLock statisticsLockEvent = new BuyGasEvents.StatisticsLock();
+		statisticsLockEvent.begin();
+		stationStatisticsLock.lock();
+		statisticsLockEvent.end(type, amountInLiters, pumpId, retryCount);
 	}
 
 	/**
@@ -296,6 +568,19 @@ class MyGasStation implements GasStation {
 		System.out.println("Setting price of " + type.toString() + " gas.");
 		
 		gasPrices.put(type, price);
+		
+		transactionEvents.publish(TransactionEvent.Kind.PRICE_CHANGE, type, 0.0, price, 0.0);
+	}
+	
+	/**
+	 * Get the publisher of the events happening in this station.
+	 * Subscribers receive the sales, cancellations and price changes happening from the moment they subscribe, except the
+	 * events dropped while their buffer is full; such gaps show up in the sequence numbers of the events.
+	 * 
+	 * @return the transaction events publisher
+	 */
+	public TransactionEventPublisher getTransactionEvents() {
+		return transactionEvents;
 	}
 	
 }
@@ -0,0 +1,296 @@
+package marcodugatto.gasstation.solution;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * The live set of pumps of a gas station.
+ *
+ * The pumps are kept in an immutable array which is replaced as a whole whenever pumps are added or retired.
+ * Readers (i.e. customers looking for a pump) just take the current array and never lock, while pumps can be
+ * added and retired during trading. A whole site layout can be loaded and published at once.
+ *
+ */
+public class PumpRegistry {
+
+	/**
+	 * A pump of the registry together with the lock giving a customer exclusive use of it.
+	 */
+	public static final class Pump {
+
+		private final int id;
+
+		private final GasPump gasPump;
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		/**
+		 * Set when the pump is removed from the registry; customers who already hold its lock finish their sale.
+		 */
+		private volatile boolean retired;
+
+		/**
+		 * The starving customers this pump is reserved for, in the order they reserved it.
+		 * Only the first of them may start a transaction on the pump.
+		 */
+		private final Queue<Thread> reservations = new ConcurrentLinkedQueue<Thread>();
+
+		private Pump(int id, GasPump gasPump) {
+			this.id = id;
+			this.gasPump = gasPump;
+		}
+
+		/**
+		 * @return the id identifying this pump in the registry
+		 */
+		public int getId() {
+			return id;
+		}
+
+		public GasPump getGasPump() {
+			return gasPump;
+		}
+
+		ReentrantLock getLock() {
+			return lock;
+		}
+
+		public boolean isRetired() {
+			return retired;
+		}
+
+		/**
+		 * Reserve this pump for a customer, after the customers who reserved it before.
+		 * No other customer starts a transaction on the pump until the reservation is released.
+		 *
+		 * @return true if the customer is the first in line
+		 */
+		boolean reserve(Thread customer) {
+			reservations.add(customer);
+			return reservations.peek() == customer;
+		}
+
+		/**
+		 * Wait until the customers who reserved this pump before have released their reservation.
+		 *
+		 * @param customer
+		 *            a customer who reserved the pump
+		 */
+		void awaitReservation(Thread customer) {
+			boolean interrupted = false;
+			while(reservations.peek() != customer) {
+				LockSupport.park(this);
+				/*
+				 * Clear the interrupt, or park would return immediately from now on; it is restored once served.
+				 */
+				interrupted |= Thread.interrupted();
+			}
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Release the reservation of a customer, handing the pump over to the next customer in line.
+		 */
+		void releaseReservation(Thread customer) {
+			reservations.remove(customer);
+			Thread next = reservations.peek();
+			if(next != null) {
+				LockSupport.unpark(next);
+			}
+		}
+
+		/**
+		 * @return the number of customers the pump is reserved for
+		 */
+		int getReservations() {
+			return reservations.size();
+		}
+
+		/**
+		 * @return true if the pump is not reserved, or this customer is the first in line
+		 */
+		boolean isAvailableTo(Thread customer) {
+			Thread reservation = reservations.peek();
+			return reservation == null || reservation == customer;
+		}
+	}
+
+	/**
+	 * The pumps currently in service. The array is never modified once published.
+	 */
+	private final AtomicReference<Pump[]> pumps = new AtomicReference<Pump[]>(new Pump[0]);
+
+	/**
+	 * The id of the next pump added.
+	 */
+	private final AtomicInteger nextId = new AtomicInteger();
+
+	/**
+	 * Add a pump to the registry, making it immediately available to customers.
+	 *
+	 * @param gasPump
+	 *            the gas pump
+	 * @return the id of the pump
+	 */
+	public int add(GasPump gasPump) {
+		return addAll(Arrays.asList(gasPump))[0];
+	}
+
+	/**
+	 * Add several pumps to the registry; customers see either none or all of them.
+	 *
+	 * @param gasPumps
+	 *            the gas pumps
+	 * @return the ids of the pumps, in the same order
+	 */
+	public int[] addAll(Collection<GasPump> gasPumps) {
+		Pump[] added = new Pump[gasPumps.size()];
+		int[] ids = new int[added.length];
+
+		int i = 0;
+		for (GasPump gasPump : gasPumps) {
+			added[i] = new Pump(nextId.getAndIncrement(), gasPump);
+			ids[i] = added[i].getId();
+			i++;
+		}
+
+		Pump[] current;
+		Pump[] updated;
+		do {
+			current = pumps.get();
+			updated = Arrays.copyOf(current, current.length + added.length);
+			System.arraycopy(added, 0, updated, current.length, added.length);
+		} while(!pumps.compareAndSet(current, updated));
+
+		return ids;
+	}
+
+	/**
+	 * Take a pump out of service. New customers won't use it anymore; a sale already in progress on it completes.
+	 *
+	 * @param id
+	 *            the id of the pump
+	 * @return true if the pump was in service
+	 */
+	public boolean retire(int id) {
+		Pump[] current;
+		Pump[] updated;
+		Pump retired;
+		do {
+			current = pumps.get();
+			retired = null;
+			updated = new Pump[Math.max(current.length - 1, 0)];
+
+			int j = 0;
+			for (Pump pump : current) {
+				if(pump.getId() == id) {
+					retired = pump;
+				}
+				else if(j < updated.length) {
+					updated[j++] = pump;
+				}
+			}
+
+			if(retired == null) {
+				return false;
+			}
+
+			/*
+			 * Mark the pump before removing it, so that a customer still holding the previous array sees it as retired once
+			 * locked and doesn't start a new sale on it. Ids are never reused, so the mark stays right if the update is retried.
+			 */
+			retired.retired = true;
+		} while(!pumps.compareAndSet(current, updated));
+
+		return true;
+	}
+
+	/**
+	 * Load a whole site layout, publishing all of its pumps at once.
+	 *
+	 * Every line of the file describes a pump as "GAS_TYPE,amountInLiters", the amount being a finite, non-negative number.
+	 * Empty lines and lines starting with '#' are ignored.
+	 *
+	 * @param layout
+	 *            the site layout file
+	 * @return the ids of the pumps, in the order of the file
+	 * @throws IOException
+	 *             if the file can't be read
+	 * @throws IllegalArgumentException
+	 *             if a line is not a valid pump; no pump is added in that case
+	 */
+	public int[] loadLayout(Path layout) throws IOException {
+		List<GasPump> gasPumps = new ArrayList<GasPump>();
+
+		try (BufferedReader reader = Files.newBufferedReader(layout, StandardCharsets.UTF_8)) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				String[] fields = line.split(",");
+				if(fields.length != 2) {
+					throw new IllegalArgumentException("Invalid pump: " + line);
+				}
+
+				GasType gasType;
+				double amountInLiters;
+				try {
+					gasType = GasType.valueOf(fields[0].trim());
+					amountInLiters = Double.parseDouble(fields[1].trim());
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Invalid pump: " + line, e);
+				}
+
+				/*
+				 * Double.parseDouble happily accepts "NaN" and "Infinity", which would make the pump unusable.
+				 */
+				if(!Double.isFinite(amountInLiters) || amountInLiters < 0) {
+					throw new IllegalArgumentException("Invalid amount of gas: " + line);
+				}
+
+				gasPumps.add(new GasPump(gasType, amountInLiters));
+			}
+		}
+
+		return addAll(gasPumps);
+	}
+
+	/**
+	 * Get the pumps currently in service, without locking.
+	 * The returned array must not be modified.
+	 *
+	 * @return the pumps in service
+	 */
+	Pump[] snapshot() {
+		return pumps.get();
+	}
+
+	/**
+	 * @return the number of pumps in service
+	 */
+	public int size() {
+		return pumps.get().length;
+	}
+
+}
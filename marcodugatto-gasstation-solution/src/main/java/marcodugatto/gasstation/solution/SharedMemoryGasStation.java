@@ -0,0 +1,476 @@
+package marcodugatto.gasstation.solution;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasStation;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+/**
+ * An implementation of the GasStation interface keeping all of its state in a memory-mapped file.
+ *
+ * Several JVMs on the same host can open the same file and sell from the same pumps: pump levels,
+ * pump ownership, prices and statistics are only ever accessed with atomic operations on the shared
+ * mapping, so they are consistent across processes as well as across threads.
+ *
+ * A pump is owned by the process currently pumping from it, identified by its pid and start time so that
+ * a new process reusing the pid of a dead one is not mistaken for it. If the owner dies while owning a pump,
+ * the next process finding the pump busy takes it over.
+ *
+ * File layout (every field is a native-order 64 bit value):
+ * <pre>
+ * magic | max pumps | allocated pumps | sales | cancellations no gas | cancellations too expensive | revenue | price per gas type...
+ * pump slots: state | gas type | remaining amount | owner (start time in epoch seconds &lt;&lt; 32 | pid)
+ * </pre>
+ *
+ */
+public class SharedMemoryGasStation implements GasStation {
+
+	/**
+	 * Identifies a file initialised as a shared gas station ("GASSTN02").
+	 * Version 01 files identified the owner of a pump by its pid only.
+	 */
+	private static final long MAGIC = 0x47415353544E3032L;
+
+	private static final int MAGIC_OFFSET = 0;
+	private static final int MAX_PUMPS_OFFSET = 8;
+	private static final int ALLOCATED_PUMPS_OFFSET = 16;
+	private static final int SALES_OFFSET = 24;
+	private static final int CANCELLATIONS_NO_GAS_OFFSET = 32;
+	private static final int CANCELLATIONS_TOO_EXPENSIVE_OFFSET = 40;
+	private static final int REVENUE_OFFSET = 48;
+	private static final int PRICES_OFFSET = 56;
+	private static final int PUMPS_OFFSET = PRICES_OFFSET + 8 * GasType.values().length;
+
+	private static final int SLOT_SIZE = 32;
+	private static final int SLOT_STATE = 0;
+	private static final int SLOT_GAS_TYPE = 8;
+	private static final int SLOT_REMAINING_AMOUNT = 16;
+	private static final int SLOT_OWNER = 24;
+
+	/**
+	 * Value of the slot state once the pump has been completely written and can be used.
+	 */
+	private static final long SLOT_READY = 1;
+
+	/**
+	 * Value of the slot owner when nobody is using the pump.
+	 */
+	private static final long NO_OWNER = 0;
+
+	/**
+	 * Minimum time between two checks of the liveness of the owners of the busy pumps during a sale.
+	 * Looking a process up is a system call, too expensive to make on every retry.
+	 */
+	private static final long OWNER_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	/**
+	 * Initial and maximum pause between two scans of the pumps while they are all busy; the pause doubles at every scan.
+	 */
+	private static final long MIN_RETRY_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+	private static final long MAX_RETRY_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * Atomic access to the 64 bit values of the mapping.
+	 * Accesses are aligned, so they are atomic across processes sharing the mapping.
+	 */
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	/**
+	 * The shared mapping holding the whole state of the station.
+	 */
+	private final MappedByteBuffer memory;
+
+	/**
+	 * Maximum number of pumps the file has room for.
+	 */
+	private final int maxPumps;
+
+	/**
+	 * The token used to mark the pumps owned by this process.
+	 */
+	private final long ownerId = ownerTokenOf(ProcessHandle.current());
+
+	private SharedMemoryGasStation(MappedByteBuffer memory, int maxPumps) {
+		this.memory = memory;
+		this.maxPumps = maxPumps;
+	}
+
+	/**
+	 * Open the shared gas station stored in a file, creating and initialising it if it does not exist yet.
+	 * A file left without its magic number by a process that died while initialising it is initialised again.
+	 *
+	 * @param file
+	 *            the file holding the station state
+	 * @param maxPumps
+	 *            the maximum number of pumps of the station; only used when the file is created
+	 * @return the station backed by the file
+	 * @throws IOException
+	 *             if the file can't be opened or is not a shared gas station
+	 */
+	public static SharedMemoryGasStation open(Path file, int maxPumps) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+			/*
+			 * Hold an exclusive file lock while checking the header, so only one process initialises a new file.
+			 */
+			FileLock fileLock = channel.lock();
+			try {
+
+				/*
+				 * Mapping past the end of the file would extend it, so a file too small for the header is rejected
+				 * before mapping anything, leaving it untouched.
+				 */
+				long size = channel.size();
+				if(size != 0 && size < PUMPS_OFFSET) {
+					throw new IOException("Not a shared gas station file: " + file);
+				}
+
+				long magic = size == 0 ? 0 : readLong(channel, MAGIC_OFFSET);
+				if(magic == 0) {
+					MappedByteBuffer memory = channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeFor(maxPumps));
+					LONGS.setVolatile(memory, MAX_PUMPS_OFFSET, (long) maxPumps);
+					LONGS.setVolatile(memory, MAGIC_OFFSET, MAGIC);
+					memory.force();
+					return new SharedMemoryGasStation(memory, maxPumps);
+				}
+
+				if(magic != MAGIC) {
+					throw new IOException("Not a shared gas station file: " + file);
+				}
+
+				int existingMaxPumps = (int) readLong(channel, MAX_PUMPS_OFFSET);
+				if(channel.size() < sizeFor(existingMaxPumps)) {
+					throw new IOException("Truncated shared gas station file: " + file);
+				}
+
+				MappedByteBuffer memory = channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeFor(existingMaxPumps));
+				return new SharedMemoryGasStation(memory, existingMaxPumps);
+			} finally {
+				fileLock.release();
+			}
+		}
+	}
+
+	/**
+	 * Read a header value without mapping the file.
+	 */
+	private static long readLong(FileChannel channel, int offset) throws IOException {
+		ByteBuffer value = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+		while(value.hasRemaining()) {
+			if(channel.read(value, offset + value.position()) < 0) {
+				throw new IOException("Unexpected end of the shared gas station file");
+			}
+		}
+		return value.getLong(0);
+	}
+
+	/**
+	 * @return the size in bytes of a station file with room for the given number of pumps
+	 */
+	private static long sizeFor(int maxPumps) {
+		return PUMPS_OFFSET + (long) maxPumps * SLOT_SIZE;
+	}
+
+	/**
+	 * Add a gas pump to this station.
+	 * The pump is visible to every process sharing the station as soon as this method returns.
+	 *
+	 * @param pump
+	 *            the gas pump
+	 * @throws IllegalStateException
+	 *             if the station file has no room for another pump
+	 */
+	public void addGasPump(GasPump pump) {
+		int index = (int) (long) LONGS.getAndAdd(memory, ALLOCATED_PUMPS_OFFSET, 1L);
+		if(index >= maxPumps) {
+			throw new IllegalStateException("The shared gas station has room for " + maxPumps + " pumps only");
+		}
+
+		/*
+		 * Write the pump and only then mark the slot as ready, so other processes never see a half-written pump.
+		 */
+		int slot = slotOffset(index);
+		LONGS.setVolatile(memory, slot + SLOT_GAS_TYPE, (long) pump.getGasType().ordinal());
+		setDouble(slot + SLOT_REMAINING_AMOUNT, pump.getRemainingAmount());
+		LONGS.setVolatile(memory, slot + SLOT_STATE, SLOT_READY);
+	}
+
+	/**
+	 * Get a deep copy of all gas pumps that are currently associated with this gas station.
+	 *
+	 * @return A collection of all gas pumps.
+	 */
+	public Collection<GasPump> getGasPumps() {
+		int numberOfPumps = numberOfPumps();
+		ArrayList<GasPump> returnCollection = new ArrayList<GasPump>(numberOfPumps);
+		for (int i = 0; i < numberOfPumps; i++) {
+			int slot = slotOffset(i);
+			if(isReady(slot)) {
+				returnCollection.add(new GasPump(gasTypeOf(slot), getDouble(slot + SLOT_REMAINING_AMOUNT)));
+			}
+		}
+		return returnCollection;
+	}
+
+	/**
+	 * Simulates a customer wanting to buy a specific amount of gas.
+	 *
+	 * @param type
+	 *            The type of gas the customer wants to buy
+	 * @param amountInLiters
+	 *            The amount of gas the customer wants to buy. Nothing less than this amount is acceptable!
+	 * @param maxPricePerLiter
+	 *            The maximum price the customer is willing to pay per liter
+	 * @return the price the customer has to pay for this transaction
+	 * @throws NotEnoughGasException
+	 *             Should be thrown in case not enough gas of this type can be provided
+	 *             by any single {@link GasPump}.
+	 * @throws GasTooExpensiveException
+	 *             Should be thrown if gas is not sold at the requested price (or any lower price)
+	 */
+	public double buyGas(GasType type, double amountInLiters, double maxPricePerLiter)
+			throws NotEnoughGasException, GasTooExpensiveException {
+
+		double price = getPrice(type);
+
+		if(maxPricePerLiter < price) {
+			LONGS.getAndAdd(memory, CANCELLATIONS_TOO_EXPENSIVE_OFFSET, 1L);
+			throw new GasTooExpensiveException();
+		}
+
+		/*
+		 * Keep scanning the pumps as long as at least one of them has the right type and enough gas:
+		 * if they are all busy, one of them will eventually be released by its owner.
+		 */
+		long nextOwnerCheckNanos = System.nanoTime();
+		long retryBackoffNanos = MIN_RETRY_BACKOFF_NANOS;
+		while(true) {
+
+			boolean pumpsStillAvailable = false;
+			int numberOfPumps = numberOfPumps();
+
+			boolean checkOwners = System.nanoTime() - nextOwnerCheckNanos >= 0;
+			if(checkOwners) {
+				nextOwnerCheckNanos = System.nanoTime() + OWNER_CHECK_INTERVAL_NANOS;
+			}
+
+			for (int i = 0; i < numberOfPumps; i++) {
+				int slot = slotOffset(i);
+
+				if(!isReady(slot) || gasTypeOf(slot) != type || getDouble(slot + SLOT_REMAINING_AMOUNT) < amountInLiters) {
+					continue;
+				}
+
+				pumpsStillAvailable = true;
+
+				if(tryAcquire(slot, checkOwners)) {
+					try {
+						/*
+						 * Another process may have drained the pump between the check and the acquisition.
+						 */
+						double remainingAmount = getDouble(slot + SLOT_REMAINING_AMOUNT);
+						if(remainingAmount < amountInLiters) {
+							continue;
+						}
+
+						GasPump pump = new GasPump(type, remainingAmount);
+						pump.pumpGas(amountInLiters);
+						setDouble(slot + SLOT_REMAINING_AMOUNT, pump.getRemainingAmount());
+					} finally {
+						LONGS.setVolatile(memory, slot + SLOT_OWNER, NO_OWNER);
+					}
+
+					double priceToPay = amountInLiters * price;
+
+					LONGS.getAndAdd(memory, SALES_OFFSET, 1L);
+					addDouble(REVENUE_OFFSET, priceToPay);
+
+					return priceToPay;
+				}
+			}
+
+			if(!pumpsStillAvailable) {
+				LONGS.getAndAdd(memory, CANCELLATIONS_NO_GAS_OFFSET, 1L);
+				throw new NotEnoughGasException();
+			}
+
+			/*
+			 * The owners hold the pumps for the whole time they pump: give up the CPU for a while, longer at every scan.
+			 */
+			LockSupport.parkNanos(retryBackoffNanos);
+			retryBackoffNanos = Math.min(retryBackoffNanos * 2, MAX_RETRY_BACKOFF_NANOS);
+		}
+	}
+
+	/**
+	 * Try to take ownership of a pump for this process.
+	 * A pump owned by a process that doesn't exist anymore is taken over.
+	 *
+	 * @param slot
+	 *            the offset of the pump slot
+	 * @param checkOwner
+	 *            true to check whether the current owner of the pump is still alive
+	 * @return true if this process now owns the pump
+	 */
+	private boolean tryAcquire(int slot, boolean checkOwner) {
+		if(LONGS.compareAndSet(memory, slot + SLOT_OWNER, NO_OWNER, ownerId)) {
+			return true;
+		}
+
+		long currentOwner = (long) LONGS.getVolatile(memory, slot + SLOT_OWNER);
+		if(!checkOwner || currentOwner == NO_OWNER || currentOwner == ownerId) {
+			return false;
+		}
+
+		return !isAlive(currentOwner) && LONGS.compareAndSet(memory, slot + SLOT_OWNER, currentOwner, ownerId);
+	}
+
+	/**
+	 * @param owner
+	 *            the owner token of a pump
+	 * @return true if the process the token was created for is still running; a process that merely reuses its pid is not
+	 */
+	private static boolean isAlive(long owner) {
+		return ProcessHandle.of(owner & 0xFFFFFFFFL)
+				.filter(ProcessHandle::isAlive)
+				.map(process -> ownerTokenOf(process) == owner)
+				.orElse(false);
+	}
+
+	/**
+	 * @return the token marking the pumps owned by a process
+	 */
+	private static long ownerTokenOf(ProcessHandle process) {
+		return ownerToken(process.pid(), process.info().startInstant().map(Instant::getEpochSecond).orElse(0L));
+	}
+
+	/**
+	 * Combine the pid and the start time of a process into the 64 bit token stored in the pump slots.
+	 *
+	 * @param pid
+	 *            the pid of the process
+	 * @param startEpochSecond
+	 *            the start time of the process, in seconds since the epoch
+	 * @return the owner token
+	 */
+	static long ownerToken(long pid, long startEpochSecond) {
+		return (startEpochSecond << 32) | (pid & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return the total revenue generated
+	 */
+	public double getRevenue() {
+		return getDouble(REVENUE_OFFSET);
+	}
+
+	/**
+	 * Returns the number of successful sales. This should not include cancelled sales.
+	 *
+	 * @return the number of sales that were successful
+	 */
+	public int getNumberOfSales() {
+		return (int) (long) LONGS.getVolatile(memory, SALES_OFFSET);
+	}
+
+	/**
+	 * @return the number of cancelled transactions due to not enough gas being available
+	 */
+	public int getNumberOfCancellationsNoGas() {
+		return (int) (long) LONGS.getVolatile(memory, CANCELLATIONS_NO_GAS_OFFSET);
+	}
+
+	/**
+	 * Returns the number of cancelled transactions due to the gas being more expensive than what the customer wanted to pay
+	 *
+	 * @return the number of cancelled transactions
+	 */
+	public int getNumberOfCancellationsTooExpensive() {
+		return (int) (long) LONGS.getVolatile(memory, CANCELLATIONS_TOO_EXPENSIVE_OFFSET);
+	}
+
+	/**
+	 * Get the price for a specific type of gas
+	 *
+	 * @param type
+	 *            the type of gas
+	 * @return the price per liter for this type of gas, or 0.0 if the price for this gas is not set
+	 */
+	public double getPrice(GasType type) {
+		return getDouble(PRICES_OFFSET + 8 * type.ordinal());
+	}
+
+	/**
+	 * Set a new price for a specific type of gas
+	 *
+	 * @param type
+	 *            the type of gas
+	 * @param price
+	 *            the new price per liter for this type of gas
+	 */
+	public void setPrice(GasType type, double price) {
+		setDouble(PRICES_OFFSET + 8 * type.ordinal(), price);
+	}
+
+	/**
+	 * @return the number of pump slots that have been allocated, some of which may still be being written
+	 */
+	private int numberOfPumps() {
+		return (int) Math.min((long) LONGS.getVolatile(memory, ALLOCATED_PUMPS_OFFSET), maxPumps);
+	}
+
+	private static int slotOffset(int index) {
+		return PUMPS_OFFSET + index * SLOT_SIZE;
+	}
+
+	/**
+	 * @return the offset in the station file of the owner of a pump
+	 */
+	static int ownerOffset(int index) {
+		return slotOffset(index) + SLOT_OWNER;
+	}
+
+	private boolean isReady(int slot) {
+		return (long) LONGS.getVolatile(memory, slot + SLOT_STATE) == SLOT_READY;
+	}
+
+	private GasType gasTypeOf(int slot) {
+		return GasType.values()[(int) (long) LONGS.getVolatile(memory, slot + SLOT_GAS_TYPE)];
+	}
+
+	private double getDouble(int offset) {
+		return Double.longBitsToDouble((long) LONGS.getVolatile(memory, offset));
+	}
+
+	private void setDouble(int offset, double value) {
+		LONGS.setVolatile(memory, offset, Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * Atomically add to a double stored in the mapping.
+	 */
+	private void addDouble(int offset, double delta) {
+		long current;
+		do {
+			current = (long) LONGS.getVolatile(memory, offset);
+		} while(!LONGS.compareAndSet(memory, offset, current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta)));
+	}
+
+}
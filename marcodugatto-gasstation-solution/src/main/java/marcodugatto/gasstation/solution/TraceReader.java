@@ -0,0 +1,125 @@
+package marcodugatto.gasstation.solution;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Streams the records of a trace file through memory mapping.
+ * 
+ * The file is mapped one window at a time, so traces of many gigabytes are read without
+ * being loaded into the heap. Empty lines and lines starting with '#' are skipped.
+ *
+ */
+public class TraceReader {
+	
+	/**
+	 * Default size of the mapped windows.
+	 */
+	private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+	
+	/**
+	 * Size of the portion of the file mapped at once; no line may be longer than this.
+	 */
+	private final int windowSize;
+	
+	public TraceReader() {
+		this(DEFAULT_WINDOW_SIZE);
+	}
+	
+	/**
+	 * @param windowSize
+	 *            the size in bytes of the portion of the file mapped at once
+	 */
+	TraceReader(int windowSize) {
+		this.windowSize = windowSize;
+	}
+	
+	/**
+	 * Read all the records of a trace file, in order.
+	 * 
+	 * @param trace
+	 *            the trace file
+	 * @param consumer
+	 *            called with every record
+	 * @throws IOException
+	 *             if the file can't be read or contains a line longer than the mapped window
+	 * @throws IllegalArgumentException
+	 *             if the file contains an invalid record
+	 */
+	public void read(Path trace, Consumer<TraceRecord> consumer) throws IOException {
+		try (FileChannel channel = FileChannel.open(trace, StandardOpenOption.READ)) {
+			
+			long fileSize = channel.size();
+			long windowStart = 0;
+			byte[] line = new byte[256];
+			
+			while(windowStart < fileSize) {
+				
+				long windowLength = Math.min(windowSize, fileSize - windowStart);
+				boolean lastWindow = windowStart + windowLength == fileSize;
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+				
+				/*
+				 * Offset in the window of the first byte of the current line.
+				 */
+				int lineStart = 0;
+				
+				for (int i = 0; i < windowLength; i++) {
+					if(window.get(i) == '\n') {
+						line = consumeLine(window, lineStart, i, line, consumer);
+						lineStart = i + 1;
+					}
+				}
+				
+				/*
+				 * A line without terminator at the end of the file is still a line.
+				 * Otherwise the next window starts where the unfinished line starts.
+				 */
+				if(lastWindow) {
+					if(lineStart < windowLength) {
+						consumeLine(window, lineStart, (int) windowLength, line, consumer);
+					}
+					windowStart = fileSize;
+				}
+				else {
+					if(lineStart == 0) {
+						throw new IOException("Trace line longer than " + windowSize + " bytes at offset " + windowStart);
+					}
+					windowStart += lineStart;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Decode and parse a line of the window, skipping comments and empty lines.
+	 * 
+	 * @return the line buffer, grown if the line didn't fit in it
+	 */
+	private static byte[] consumeLine(MappedByteBuffer window, int start, int end, byte[] line, Consumer<TraceRecord> consumer) {
+		if(end > start && window.get(end - 1) == '\r') {
+			end--;
+		}
+		
+		int length = end - start;
+		if(length == 0 || window.get(start) == '#') {
+			return line;
+		}
+		
+		if(line.length < length) {
+			line = new byte[length];
+		}
+		for (int i = 0; i < length; i++) {
+			line[i] = window.get(start + i);
+		}
+		
+		consumer.accept(TraceRecord.parse(new String(line, 0, length, StandardCharsets.US_ASCII)));
+		return line;
+	}
+
+}
@@ -0,0 +1,113 @@
+package marcodugatto.gasstation.solution;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * One transaction of a recorded trace, as read by {@link TraceReader}.
+ * 
+ * A trace line has the format:
+ * <pre>
+ * timestampMillis,GAS_TYPE,amountInLiters,maxPricePerLiter[,RECORDED_OUTCOME]
+ * </pre>
+ * where the optional recorded outcome is one of {@link TransactionEvent.Kind#SALE}, {@link TransactionEvent.Kind#CANCELLATION_NO_GAS}
+ * or {@link TransactionEvent.Kind#CANCELLATION_TOO_EXPENSIVE}.
+ *
+ */
+public final class TraceRecord {
+	
+	private final long timestamp;
+	
+	private final GasType gasType;
+	
+	private final double amountInLiters;
+	
+	private final double maxPricePerLiter;
+	
+	private final TransactionEvent.Kind recordedOutcome;
+	
+	/**
+	 * @param timestamp
+	 *            the time of the transaction, in milliseconds
+	 * @param gasType
+	 *            the type of gas requested
+	 * @param amountInLiters
+	 *            the amount of gas requested
+	 * @param maxPricePerLiter
+	 *            the maximum price the customer was willing to pay per liter
+	 * @param recordedOutcome
+	 *            the outcome of the transaction when it was recorded, or null if unknown
+	 */
+	public TraceRecord(long timestamp, GasType gasType, double amountInLiters, double maxPricePerLiter, TransactionEvent.Kind recordedOutcome) {
+		this.timestamp = timestamp;
+		this.gasType = gasType;
+		this.amountInLiters = amountInLiters;
+		this.maxPricePerLiter = maxPricePerLiter;
+		this.recordedOutcome = recordedOutcome;
+	}
+	
+	/**
+	 * Parse a trace line.
+	 * 
+	 * @param line
+	 *            the line, without its line terminator
+	 * @return the record
+	 * @throws IllegalArgumentException
+	 *             if the line is not a valid trace record
+	 */
+	public static TraceRecord parse(String line) {
+		String[] fields = line.split(",");
+		if(fields.length != 4 && fields.length != 5) {
+			throw new IllegalArgumentException("Invalid trace record: " + line);
+		}
+		
+		try {
+			return new TraceRecord(
+					Long.parseLong(fields[0].trim()),
+					GasType.valueOf(fields[1].trim()),
+					Double.parseDouble(fields[2].trim()),
+					Double.parseDouble(fields[3].trim()),
+					fields.length == 5 ? parseOutcome(fields[4].trim()) : null);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid trace record: " + line, e);
+		}
+	}
+	
+	/**
+	 * @return the outcome of a transaction; other kinds of events (e.g. price changes) are not transactions
+	 */
+	private static TransactionEvent.Kind parseOutcome(String outcome) {
+		TransactionEvent.Kind kind = TransactionEvent.Kind.valueOf(outcome);
+		switch(kind) {
+		case SALE:
+		case CANCELLATION_NO_GAS:
+		case CANCELLATION_TOO_EXPENSIVE:
+			return kind;
+		default:
+			throw new IllegalArgumentException("Not a transaction outcome: " + outcome);
+		}
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public GasType getGasType() {
+		return gasType;
+	}
+
+	public double getAmountInLiters() {
+		return amountInLiters;
+	}
+
+	public double getMaxPricePerLiter() {
+		return maxPricePerLiter;
+	}
+
+	/**
+	 * @return the outcome of the transaction when it was recorded, or null if unknown
+	 */
+	public TransactionEvent.Kind getRecordedOutcome() {
+		return recordedOutcome;
+	}
+
+}
@@ -0,0 +1,358 @@
+package marcodugatto.gasstation.solution;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasStation;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+/**
+ * Replays a recorded trace of transactions against a {@link GasStation}, to compare implementations with real traffic.
+ *
+ * The trace is streamed by a {@link TraceReader} and every transaction is handed to a pool of customer threads
+ * at its original time divided by the replay speed. At the end a {@link Report} compares the outcomes and the
+ * throughput with the recorded ones, and tells how late the transactions started when the customer threads
+ * couldn't keep up with the trace.
+ *
+ */
+public class TraceReplayer {
+
+	/**
+	 * Replay speed meaning that transactions are replayed as soon as a customer thread is free, ignoring their timestamps.
+	 */
+	public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+	/**
+	 * The gas station the trace is replayed against.
+	 */
+	private final GasStation gasStation;
+
+	/**
+	 * How many times faster than the original the trace is replayed.
+	 */
+	private final double speed;
+
+	/**
+	 * Number of customer threads calling buyGas concurrently.
+	 */
+	private final int customerThreads;
+
+	private final TraceReader traceReader;
+
+	/**
+	 * @param gasStation
+	 *            the gas station the trace is replayed against
+	 * @param speed
+	 *            1.0 to replay at the original speed, more to replay faster, or {@link #AS_FAST_AS_POSSIBLE}
+	 * @param customerThreads
+	 *            the number of transactions that may be in progress at the same time
+	 */
+	public TraceReplayer(GasStation gasStation, double speed, int customerThreads) {
+		this(gasStation, speed, customerThreads, new TraceReader());
+	}
+
+	TraceReplayer(GasStation gasStation, double speed, int customerThreads, TraceReader traceReader) {
+		if(!(speed > 0)) {
+			throw new IllegalArgumentException("The replay speed must be positive: " + speed);
+		}
+		this.gasStation = gasStation;
+		this.speed = speed;
+		this.customerThreads = customerThreads;
+		this.traceReader = traceReader;
+	}
+
+	/**
+	 * Replay all the transactions of a trace file and wait for all of them to complete.
+	 *
+	 * @param trace
+	 *            the trace file
+	 * @return the comparison between the replayed and the recorded transactions
+	 * @throws IOException
+	 *             if the trace can't be read
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the last transactions
+	 */
+	public Report replay(Path trace) throws IOException, InterruptedException {
+
+		Report report = new Report();
+		ExecutorService customers = Executors.newFixedThreadPool(customerThreads);
+
+		/*
+		 * Limit the transactions waiting for a customer thread, so a fast replay doesn't queue the whole trace in memory.
+		 */
+		Semaphore pendingTransactions = new Semaphore(customerThreads * 2);
+
+		long startNanos = System.nanoTime();
+
+		try {
+			traceReader.read(trace, record -> {
+
+				if(report.transactions.get() == 0) {
+					report.firstTimestamp = record.getTimestamp();
+				}
+				report.lastTimestamp = record.getTimestamp();
+				report.transactions.incrementAndGet();
+
+				boolean paced = speed != AS_FAST_AS_POSSIBLE;
+				long dueNanos = paced ? startNanos + (long) ((record.getTimestamp() - report.firstTimestamp) * 1_000_000 / speed) : 0;
+				if(paced) {
+					for (long delay = dueNanos - System.nanoTime(); delay > 0; delay = dueNanos - System.nanoTime()) {
+						LockSupport.parkNanos(delay);
+					}
+				}
+
+				pendingTransactions.acquireUninterruptibly();
+				customers.execute(() -> {
+					try {
+						/*
+						 * With all the customer threads busy, the transaction starts later than in the trace.
+						 */
+						if(paced) {
+							report.recordDispatchDelay(System.nanoTime() - dueNanos);
+						}
+						report.record(record, replayTransaction(record));
+					} finally {
+						pendingTransactions.release();
+					}
+				});
+			});
+		} finally {
+			customers.shutdown();
+			customers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			report.elapsedNanos = System.nanoTime() - startNanos;
+		}
+
+		return report;
+	}
+
+	/**
+	 * @return the outcome of the transaction, or null if it failed with an unexpected exception
+	 */
+	private TransactionEvent.Kind replayTransaction(TraceRecord record) {
+		try {
+			gasStation.buyGas(record.getGasType(), record.getAmountInLiters(), record.getMaxPricePerLiter());
+			return TransactionEvent.Kind.SALE;
+		} catch (NotEnoughGasException e) {
+			return TransactionEvent.Kind.CANCELLATION_NO_GAS;
+		} catch (GasTooExpensiveException e) {
+			return TransactionEvent.Kind.CANCELLATION_TOO_EXPENSIVE;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The result of a replay: outcomes and throughput, compared with the recorded ones.
+	 */
+	public static final class Report {
+
+		private final AtomicLong transactions = new AtomicLong();
+
+		private final AtomicLongArray recordedOutcomes = new AtomicLongArray(TransactionEvent.Kind.values().length);
+
+		private final AtomicLongArray replayedOutcomes = new AtomicLongArray(TransactionEvent.Kind.values().length);
+
+		/**
+		 * Number of transactions whose replayed outcome differs from the recorded one.
+		 */
+		private final AtomicLong differentOutcomes = new AtomicLong();
+
+		/**
+		 * Number of transactions that failed with an unexpected exception.
+		 */
+		private final AtomicLong errors = new AtomicLong();
+
+		/**
+		 * Number of transactions that started more than {@link #LATE_DISPATCH_NANOS} after their time in the trace.
+		 */
+		private final AtomicLong lateDispatches = new AtomicLong();
+
+		private final AtomicLong totalDispatchDelayNanos = new AtomicLong();
+
+		private final AtomicLong maxDispatchDelayNanos = new AtomicLong();
+
+		private long firstTimestamp;
+
+		private long lastTimestamp;
+
+		private long elapsedNanos;
+
+		/**
+		 * Delay after which a transaction counts as started late, leaving room for the scheduling jitter.
+		 */
+		private static final long LATE_DISPATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+		private Report() {
+		}
+
+		private void recordDispatchDelay(long delayNanos) {
+			delayNanos = Math.max(delayNanos, 0);
+			if(delayNanos > LATE_DISPATCH_NANOS) {
+				lateDispatches.incrementAndGet();
+			}
+			totalDispatchDelayNanos.addAndGet(delayNanos);
+			maxDispatchDelayNanos.accumulateAndGet(delayNanos, Math::max);
+		}
+
+		private void record(TraceRecord record, TransactionEvent.Kind replayedOutcome) {
+			if(replayedOutcome == null) {
+				errors.incrementAndGet();
+			}
+			else {
+				replayedOutcomes.incrementAndGet(replayedOutcome.ordinal());
+			}
+
+			if(record.getRecordedOutcome() != null) {
+				recordedOutcomes.incrementAndGet(record.getRecordedOutcome().ordinal());
+
+				if(record.getRecordedOutcome() != replayedOutcome) {
+					differentOutcomes.incrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * @return the number of replayed transactions
+		 */
+		public long getTransactions() {
+			return transactions.get();
+		}
+
+		/**
+		 * @param outcome
+		 *            the outcome
+		 * @return the number of recorded transactions with this outcome
+		 */
+		public long getRecordedOutcomes(TransactionEvent.Kind outcome) {
+			return recordedOutcomes.get(outcome.ordinal());
+		}
+
+		/**
+		 * @param outcome
+		 *            the outcome
+		 * @return the number of replayed transactions with this outcome
+		 */
+		public long getReplayedOutcomes(TransactionEvent.Kind outcome) {
+			return replayedOutcomes.get(outcome.ordinal());
+		}
+
+		/**
+		 * @return the number of transactions whose replayed outcome differs from the recorded one
+		 */
+		public long getDifferentOutcomes() {
+			return differentOutcomes.get();
+		}
+
+		/**
+		 * @return the number of transactions that failed with an unexpected exception
+		 */
+		public long getErrors() {
+			return errors.get();
+		}
+
+		/**
+		 * @return the number of transactions that started more than 1 ms after their time in the trace, always 0 when
+		 *         replaying as fast as possible
+		 */
+		public long getLateDispatches() {
+			return lateDispatches.get();
+		}
+
+		/**
+		 * @return the mean delay between the time of the transactions in the trace and their start, in milliseconds
+		 */
+		public double getMeanDispatchDelayMillis() {
+			return getTransactions() == 0 ? 0.0 : totalDispatchDelayNanos.get() / 1e6 / getTransactions();
+		}
+
+		/**
+		 * @return the longest delay between the time of a transaction in the trace and its start, in milliseconds
+		 */
+		public double getMaxDispatchDelayMillis() {
+			return maxDispatchDelayNanos.get() / 1e6;
+		}
+
+		/**
+		 * @return the transactions per second of the replay
+		 */
+		public double getThroughput() {
+			return elapsedNanos == 0 ? 0.0 : getTransactions() * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * @return the transactions per second of the recorded trace, based on its timestamps
+		 */
+		public double getRecordedThroughput() {
+			long recordedMillis = lastTimestamp - firstTimestamp;
+			return recordedMillis == 0 ? 0.0 : getTransactions() * 1e3 / recordedMillis;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder report = new StringBuilder();
+			report.append("Replayed transactions: ").append(getTransactions()).append(System.lineSeparator());
+
+			for (TransactionEvent.Kind outcome : new TransactionEvent.Kind[] { TransactionEvent.Kind.SALE, TransactionEvent.Kind.CANCELLATION_NO_GAS, TransactionEvent.Kind.CANCELLATION_TOO_EXPENSIVE }) {
+				report.append(outcome).append(": recorded ").append(getRecordedOutcomes(outcome))
+						.append(", replayed ").append(getReplayedOutcomes(outcome)).append(System.lineSeparator());
+			}
+
+			report.append("Different outcomes: ").append(getDifferentOutcomes()).append(System.lineSeparator());
+			report.append("Errors: ").append(getErrors()).append(System.lineSeparator());
+			report.append(String.format("Late transactions: %d (mean delay %.1f ms, max %.1f ms)", getLateDispatches(), getMeanDispatchDelayMillis(), getMaxDispatchDelayMillis()))
+					.append(System.lineSeparator());
+			report.append(String.format("Throughput: %.1f transactions/s (recorded %.1f transactions/s)", getThroughput(), getRecordedThroughput()));
+			return report.toString();
+		}
+	}
+
+	/**
+	 * Replay a trace file against the demo gas station, or against the pumps of a site layout file (see {@link PumpRegistry#loadLayout(Path)}).
+	 *
+	 * Usage: TraceReplayer &lt;trace file&gt; [speed|max] [customer threads] [site layout file]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 1) {
+			System.err.println("Usage: TraceReplayer <trace file> [speed|max] [customer threads] [site layout file]");
+			System.exit(1);
+		}
+
+		Path trace = Paths.get(args[0]);
+		double speed = args.length > 1 ? ("max".equals(args[1]) ? AS_FAST_AS_POSSIBLE : Double.parseDouble(args[1])) : 1.0;
+		int customerThreads = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+		/*
+		 * Same prices as the GasStationTest demo, and the same pumps unless a site layout is given.
+		 */
+		MyGasStation myGasStation = new MyGasStation();
+		myGasStation.setPrice(GasType.REGULAR, 1.63);
+		myGasStation.setPrice(GasType.SUPER, 1.78);
+		myGasStation.setPrice(GasType.DIESEL, 1.56);
+		
+		if(args.length > 3) {
+			myGasStation.getPumpRegistry().loadLayout(Paths.get(args[3]));
+		}
+		else {
+			myGasStation.addGasPump(new GasPump(GasType.REGULAR, 100));
+			myGasStation.addGasPump(new GasPump(GasType.REGULAR, 100));
+			myGasStation.addGasPump(new GasPump(GasType.DIESEL, 500));
+			myGasStation.addGasPump(new GasPump(GasType.SUPER, 300));
+		}
+
+		Report report = new TraceReplayer(myGasStation, speed, customerThreads).replay(trace);
+
+		System.out.println(report);
+	}
+
+}
@@ -0,0 +1,103 @@
+package marcodugatto.gasstation.solution;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * An immutable record of something that happened at the gas station: a sale, a cancelled transaction or a price change.
+ * 
+ * Instances are published by {@link TransactionEventPublisher} to external systems (billing, loyalty...).
+ *
+ */
+public final class TransactionEvent {
+
+	/**
+	 * The kinds of events emitted by the gas station.
+	 */
+	public enum Kind {
+		SALE,
+		CANCELLATION_NO_GAS,
+		CANCELLATION_TOO_EXPENSIVE,
+		PRICE_CHANGE;
+	}
+	
+	private final long sequenceNumber;
+	
+	private final Kind kind;
+	
+	private final GasType gasType;
+	
+	private final double amountInLiters;
+	
+	private final double pricePerLiter;
+	
+	private final double totalPrice;
+	
+	private final long timestamp;
+	
+	/**
+	 * @param sequenceNumber
+	 *            the position of this event in the stream of its publisher
+	 * @param kind
+	 *            what happened
+	 * @param gasType
+	 *            the type of gas involved
+	 * @param amountInLiters
+	 *            the amount of gas requested, or 0.0 for a price change
+	 * @param pricePerLiter
+	 *            the price per liter of the gas at the time of the event (the new price for a price change)
+	 * @param totalPrice
+	 *            the price paid by the customer, or 0.0 if nothing was sold
+	 */
+	public TransactionEvent(long sequenceNumber, Kind kind, GasType gasType, double amountInLiters, double pricePerLiter, double totalPrice) {
+		this.sequenceNumber = sequenceNumber;
+		this.kind = kind;
+		this.gasType = gasType;
+		this.amountInLiters = amountInLiters;
+		this.pricePerLiter = pricePerLiter;
+		this.totalPrice = totalPrice;
+		this.timestamp = System.currentTimeMillis();
+	}
+
+	/**
+	 * Events are numbered consecutively by their publisher, and every subscriber receives them in that order.
+	 * A gap between two events received by a subscriber means the events in between were dropped for it.
+	 * 
+	 * @return the position of this event in the stream of its publisher
+	 */
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public GasType getGasType() {
+		return gasType;
+	}
+
+	public double getAmountInLiters() {
+		return amountInLiters;
+	}
+
+	public double getPricePerLiter() {
+		return pricePerLiter;
+	}
+
+	public double getTotalPrice() {
+		return totalPrice;
+	}
+
+	/**
+	 * @return the time the event was created, in milliseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "#" + sequenceNumber + " " + kind + " " + amountInLiters + "L of " + gasType + " at " + pricePerLiter + " (total " + totalPrice + ")";
+	}
+	
+}
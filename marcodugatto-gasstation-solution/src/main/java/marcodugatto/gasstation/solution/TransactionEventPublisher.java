@@ -0,0 +1,125 @@
+package marcodugatto.gasstation.solution;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * A {@link Flow.Publisher} of the {@link TransactionEvent}s generated by a gas station.
+ * 
+ * Every subscriber gets its own bounded buffer and receives events only as fast as it requests them.
+ * Publishing never waits for a subscriber: if a subscriber's buffer is full the event is dropped for that subscriber only,
+ * so a slow subscriber can never slow down the gas pumps. Events are numbered consecutively, so that subscribers
+ * can detect the events they missed (see {@link TransactionEvent#getSequenceNumber()}).
+ *
+ */
+public class TransactionEventPublisher implements Flow.Publisher<TransactionEvent>, AutoCloseable {
+	
+	/**
+	 * Delivers the events to the subscribers, one buffer per subscriber.
+	 */
+	private final SubmissionPublisher<TransactionEvent> publisher;
+	
+	/**
+	 * Number of events that have been dropped because a subscriber's buffer was full.
+	 */
+	private final AtomicLong droppedEvents = new AtomicLong();
+	
+	/**
+	 * Sequence number of the last event published, only updated while holding the publisher lock.
+	 */
+	private long lastSequenceNumber;
+	
+	/**
+	 * Create a publisher delivering the events on the common fork join pool, with the default buffer size.
+	 */
+	public TransactionEventPublisher() {
+		this(ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+	}
+	
+	/**
+	 * @param executor
+	 *            the executor used to deliver the events to the subscribers
+	 * @param maxBufferCapacity
+	 *            the maximum number of events buffered for every subscriber
+	 */
+	public TransactionEventPublisher(Executor executor, int maxBufferCapacity) {
+		publisher = new SubmissionPublisher<TransactionEvent>(executor, maxBufferCapacity);
+	}
+	
+	@Override
+	public void subscribe(Flow.Subscriber<? super TransactionEvent> subscriber) {
+		publisher.subscribe(subscriber);
+	}
+	
+	/**
+	 * Hand an event to all current subscribers without waiting for any of them.
+	 * 
+	 * @param kind
+	 *            what happened
+	 * @param gasType
+	 *            the type of gas involved
+	 * @param amountInLiters
+	 *            the amount of gas requested, or 0.0 for a price change
+	 * @param pricePerLiter
+	 *            the price per liter of the gas used for the transaction (the new price for a price change)
+	 * @param totalPrice
+	 *            the price paid by the customer, or 0.0 if nothing was sold
+	 */
+	void publish(TransactionEvent.Kind kind, GasType gasType, double amountInLiters, double pricePerLiter, double totalPrice) {
+		/*
+		 * Skip the work entirely when nobody is listening, and ignore events published after closing.
+		 */
+		if(!publisher.hasSubscribers() || publisher.isClosed()) {
+			return;
+		}
+		
+		/*
+		 * Numbering and offering under the same lock keeps the delivery order equal to the sequence order.
+		 * The lock is only held for the offer, which never waits for a subscriber.
+		 */
+		synchronized (this) {
+			TransactionEvent event = new TransactionEvent(++lastSequenceNumber, kind, gasType, amountInLiters, pricePerLiter, totalPrice);
+			
+			try {
+				/*
+				 * offer (unlike submit) never blocks: the event is dropped for every subscriber whose buffer is full.
+				 * The drop handler only counts the loss and returns false to avoid retrying.
+				 */
+				publisher.offer(event, (subscriber, droppedEvent) -> {
+					droppedEvents.incrementAndGet();
+					return false;
+				});
+			} catch (IllegalStateException e) {
+				// Closed concurrently, ignore
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of events dropped because a subscriber could not keep up
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents.get();
+	}
+	
+	/**
+	 * @return the number of current subscribers
+	 */
+	public int getNumberOfSubscribers() {
+		return publisher.getNumberOfSubscribers();
+	}
+	
+	/**
+	 * Stop publishing events and complete all current subscribers.
+	 */
+	@Override
+	public void close() {
+		publisher.close();
+	}
+
+}
@@ -0,0 +1,71 @@
+package marcodugatto.gasstation.solution;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+
+public class TestBuyGasEvents {
+	
+	@Test
+	public void testPhasesAreRecorded() throws IOException {
+		MyGasStation testMyGasStation = new MyGasStation();
+		testMyGasStation.addGasPump(new GasPump(GasType.DIESEL, 100.0));
+		testMyGasStation.setPrice(GasType.DIESEL, 1.0);
+		
+		Path recordingFile = Files.createTempFile("buygas", ".jfr");
+		
+		try (Recording recording = new Recording()) {
+			/*
+			 * Disable the thresholds so that even the fastest phases are recorded.
+			 */
+			recording.enable(BuyGasEvents.PriceCheck.class).withThreshold(Duration.ZERO);
+			recording.enable(BuyGasEvents.PumpScan.class).withThreshold(Duration.ZERO);
+			recording.enable(BuyGasEvents.Pumping.class).withThreshold(Duration.ZERO);
+			recording.enable(BuyGasEvents.StatisticsLock.class).withThreshold(Duration.ZERO);
+			recording.start();
+			
+			try {
+				testMyGasStation.buyGas(GasType.DIESEL, 1.0, 1.1);
+			} catch (Exception e) {
+				// Ignore
+			}
+			
+			recording.stop();
+			recording.dump(recordingFile);
+		}
+		
+		List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile).stream()
+				.filter(event -> event.getEventType().getName().startsWith("marcodugatto.gasstation.BuyGas."))
+				.collect(Collectors.toList());
+		Files.delete(recordingFile);
+		
+		assertEquals(4, events.size());
+		
+		for (RecordedEvent event : events) {
+			assertEquals("DIESEL", event.getString("gasType"));
+			assertEquals(1.0, event.getDouble("amountInLiters"));
+			assertEquals(0, event.getInt("retryCount"));
+		}
+		
+		RecordedEvent pumpingEvent = events.stream()
+				.filter(event -> event.getEventType().getName().endsWith(".Pumping"))
+				.findFirst().get();
+		assertEquals(0, pumpingEvent.getInt("pumpId"));
+		assertTrue(pumpingEvent.getDuration().toMillis() >= 100);
+	}
+
+}
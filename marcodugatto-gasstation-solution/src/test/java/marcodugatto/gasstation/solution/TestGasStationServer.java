@@ -0,0 +1,332 @@
+package marcodugatto.gasstation.solution;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+
+public class TestGasStationServer {
+	
+	/**
+	 * Workers holding the sales until released, to control when they complete.
+	 */
+	private static class HeldWorkers implements Executor {
+		
+		private final List<Runnable> heldTasks = new ArrayList<Runnable>();
+		
+		private ExecutorService releasedWorkers;
+		
+		@Override
+		public synchronized void execute(Runnable task) {
+			if(releasedWorkers != null) {
+				releasedWorkers.execute(task);
+			}
+			else {
+				heldTasks.add(task);
+			}
+		}
+		
+		synchronized int heldTasks() {
+			return heldTasks.size();
+		}
+		
+		synchronized void release() {
+			releasedWorkers = Executors.newSingleThreadExecutor();
+			heldTasks.forEach(releasedWorkers::execute);
+			heldTasks.clear();
+		}
+		
+		synchronized void shutdown() {
+			if(releasedWorkers != null) {
+				releasedWorkers.shutdown();
+			}
+		}
+	}
+	
+	private static MyGasStation newGasStation() {
+		MyGasStation testMyGasStation = new MyGasStation();
+		testMyGasStation.addGasPump(new GasPump(GasType.REGULAR, 100.0));
+		testMyGasStation.setPrice(GasType.REGULAR, 1.0);
+		return testMyGasStation;
+	}
+	
+	/**
+	 * Read one response frame from a blocking channel.
+	 * 
+	 * @return the body of the frame
+	 */
+	private static ByteBuffer readResponse(SocketChannel channel) throws IOException {
+		ByteBuffer length = ByteBuffer.allocate(GasStationProtocol.LENGTH_SIZE);
+		while(length.hasRemaining()) {
+			channel.read(length);
+		}
+		ByteBuffer body = ByteBuffer.allocate(Short.toUnsignedInt(length.flip().getShort()));
+		while(body.hasRemaining()) {
+			channel.read(body);
+		}
+		return body.flip();
+	}
+	
+	@Test
+	public void testPipelinedRequests() throws IOException {
+		MyGasStation testMyGasStation = new MyGasStation();
+		testMyGasStation.addGasPump(new GasPump(GasType.REGULAR, 100.0));
+		testMyGasStation.setPrice(GasType.REGULAR, 1.0);
+		
+		try (GasStationServer server = new GasStationServer(testMyGasStation)) {
+			InetSocketAddress address = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			
+			try (SocketChannel terminal = SocketChannel.open(address)) {
+				
+				/*
+				 * Send all the requests at once, without waiting for any response.
+				 */
+				ByteBuffer[] requests = {
+						GasStationProtocol.buyRequest(1, GasType.REGULAR, 10.0, 1.1),
+						GasStationProtocol.buyRequest(2, GasType.REGULAR, 10.0, 0.9),
+						GasStationProtocol.buyRequest(3, GasType.REGULAR, 500.0, 1.1),
+						GasStationProtocol.setPriceRequest(4, GasType.DIESEL, 1.5),
+						GasStationProtocol.getPriceRequest(5, GasType.REGULAR),
+				};
+				terminal.write(requests);
+				
+				Map<Integer, ByteBuffer> responses = new HashMap<Integer, ByteBuffer>();
+				for (int i = 0; i < requests.length; i++) {
+					ByteBuffer response = readResponse(terminal);
+					responses.put(response.getInt(), response);
+				}
+				
+				assertEquals(GasStationProtocol.OK, responses.get(1).get());
+				assertEquals(10.0, responses.get(1).getDouble());
+				assertEquals(GasStationProtocol.GAS_TOO_EXPENSIVE, responses.get(2).get());
+				assertEquals(GasStationProtocol.NOT_ENOUGH_GAS, responses.get(3).get());
+				assertEquals(GasStationProtocol.OK, responses.get(4).get());
+				assertEquals(GasStationProtocol.OK, responses.get(5).get());
+				assertEquals(1.0, responses.get(5).getDouble());
+				assertEquals(1.5, testMyGasStation.getPrice(GasType.DIESEL));
+				
+				/*
+				 * Statistics are asked for once the sales have completed.
+				 */
+				terminal.write(GasStationProtocol.getStatsRequest(6));
+				ByteBuffer stats = readResponse(terminal);
+				assertEquals(6, stats.getInt());
+				assertEquals(GasStationProtocol.OK, stats.get());
+				assertEquals(10.0, stats.getDouble());
+				assertEquals(1, stats.getInt());
+				assertEquals(1, stats.getInt());
+				assertEquals(1, stats.getInt());
+			}
+		}
+	}
+	
+	@Test
+	public void testBadRequest() throws IOException {
+		try (GasStationServer server = new GasStationServer(new MyGasStation())) {
+			InetSocketAddress address = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			
+			try (SocketChannel terminal = SocketChannel.open(address)) {
+				ByteBuffer unknownOpcode = ByteBuffer.allocate(7).putShort((short) 5).putInt(42).put((byte) 99).flip();
+				ByteBuffer unknownGasType = ByteBuffer.allocate(8).putShort((short) 6).putInt(43).put(GasStationProtocol.GET_PRICE).put((byte) 7).flip();
+				terminal.write(new ByteBuffer[] { unknownOpcode, unknownGasType });
+				
+				Map<Integer, ByteBuffer> responses = new HashMap<Integer, ByteBuffer>();
+				for (int i = 0; i < 2; i++) {
+					ByteBuffer response = readResponse(terminal);
+					responses.put(response.getInt(), response);
+				}
+				
+				assertEquals(GasStationProtocol.BAD_REQUEST, responses.get(42).get());
+				assertEquals(GasStationProtocol.BAD_REQUEST, responses.get(43).get());
+			}
+		}
+	}
+	
+	@Test
+	public void testCheapRequestsDontWaitForSales() throws IOException {
+		HeldWorkers workers = new HeldWorkers();
+		
+		try (GasStationServer server = new GasStationServer(newGasStation(), workers)) {
+			InetSocketAddress address = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			
+			try (SocketChannel terminal = SocketChannel.open(address)) {
+				
+				/*
+				 * The sale never completes, yet the price is answered.
+				 */
+				terminal.write(new ByteBuffer[] {
+						GasStationProtocol.buyRequest(1, GasType.REGULAR, 10.0, 1.1),
+						GasStationProtocol.getPriceRequest(2, GasType.REGULAR),
+				});
+				
+				ByteBuffer response = readResponse(terminal);
+				assertEquals(2, response.getInt());
+				assertEquals(GasStationProtocol.OK, response.get());
+				assertEquals(1.0, response.getDouble());
+				assertEquals(1, workers.heldTasks());
+			}
+		}
+	}
+	
+	@Test
+	public void testReadingStopsWhileTooManySalesAreInProgress() throws Exception {
+		HeldWorkers workers = new HeldWorkers();
+		MyGasStation testMyGasStation = newGasStation();
+		
+		try (GasStationServer server = new GasStationServer(testMyGasStation, workers)) {
+			InetSocketAddress address = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			
+			try (SocketChannel terminal = SocketChannel.open(address)) {
+				ByteBuffer[] requests = new ByteBuffer[41];
+				for (int i = 0; i < 40; i++) {
+					requests[i] = GasStationProtocol.buyRequest(i, GasType.REGULAR, 0.01, 1.1);
+				}
+				requests[40] = GasStationProtocol.getPriceRequest(40, GasType.REGULAR);
+				terminal.write(requests);
+				
+				/*
+				 * Only 32 sales are dispatched; the price request behind the others waits with them.
+				 */
+				for (int i = 0; i < 100 && workers.heldTasks() < 32; i++) {
+					Thread.sleep(10);
+				}
+				Thread.sleep(200);
+				assertEquals(32, workers.heldTasks());
+				
+				terminal.configureBlocking(false);
+				assertEquals(0, terminal.read(ByteBuffer.allocate(16)));
+				terminal.configureBlocking(true);
+				
+				workers.release();
+				
+				Map<Integer, ByteBuffer> responses = new HashMap<Integer, ByteBuffer>();
+				for (int i = 0; i < requests.length; i++) {
+					ByteBuffer response = readResponse(terminal);
+					responses.put(response.getInt(), response);
+				}
+				
+				assertEquals(41, responses.size());
+				assertEquals(GasStationProtocol.OK, responses.get(40).get());
+				assertEquals(40, testMyGasStation.getNumberOfSales());
+			}
+		} finally {
+			workers.shutdown();
+		}
+	}
+	
+	@Test
+	public void testReadingStopsWhileResponsesAreNotRead() throws Exception {
+		try (GasStationServer server = new GasStationServer(newGasStation())) {
+			InetSocketAddress address = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			
+			try (SocketChannel terminal = SocketChannel.open(address)) {
+				int frameSize = GasStationProtocol.getPriceRequest(0, GasType.REGULAR).remaining();
+				ByteBuffer requests = ByteBuffer.allocate(1000 * frameSize);
+				for (int i = 0; i < 1000; i++) {
+					requests.put(GasStationProtocol.getPriceRequest(i, GasType.REGULAR));
+				}
+				requests.flip();
+				
+				/*
+				 * A terminal that never reads its responses: once the socket buffers are full of responses the server stops
+				 * reading from it, so the requests fill up the socket buffers too, instead of the server queueing responses forever.
+				 */
+				terminal.configureBlocking(false);
+				long writtenBytes = 0;
+				boolean stalled = false;
+				while(!stalled && writtenBytes < 20_000_000L) {
+					if(!requests.hasRemaining()) {
+						requests.rewind();
+					}
+					int written = terminal.write(requests);
+					if(written == 0) {
+						
+						/*
+						 * The server may just be behind: it has stopped reading only if the socket is still full after a while.
+						 */
+						Thread.sleep(200);
+						written = terminal.write(requests);
+						stalled = written == 0;
+					}
+					writtenBytes += written;
+				}
+				assertTrue(stalled, "the server kept reading: " + writtenBytes + " bytes");
+				
+				/*
+				 * Once the terminal reads its responses, every request is answered.
+				 */
+				terminal.configureBlocking(true);
+				AtomicLong readBytes = new AtomicLong();
+				Thread reader = new Thread(() -> {
+					ByteBuffer responses = ByteBuffer.allocate(64 * 1024);
+					try {
+						while(terminal.read(responses.clear()) > 0) {
+							readBytes.addAndGet(responses.position());
+						}
+					} catch (IOException e) {
+						// Ignore
+					}
+				});
+				reader.setDaemon(true);
+				reader.start();
+				
+				while(requests.hasRemaining()) {
+					writtenBytes += terminal.write(requests);
+				}
+				
+				long expectedBytes = writtenBytes / frameSize * GasStationProtocol.responseFrame(0, GasStationProtocol.OK, 8).capacity();
+				long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+				while(readBytes.get() < expectedBytes && System.nanoTime() < deadline) {
+					Thread.sleep(10);
+				}
+				assertEquals(expectedBytes, readBytes.get());
+			}
+		}
+	}
+	
+	@Test
+	public void testRejectedSaleOnlyClosesItsConnection() throws IOException {
+		Executor rejectingWorkers = task -> {
+			throw new RejectedExecutionException();
+		};
+		
+		try (GasStationServer server = new GasStationServer(newGasStation(), rejectingWorkers)) {
+			InetSocketAddress address = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			
+			try (SocketChannel terminal = SocketChannel.open(address)) {
+				terminal.write(GasStationProtocol.buyRequest(1, GasType.REGULAR, 10.0, 1.1));
+				assertEquals(-1, terminal.read(ByteBuffer.allocate(16)));
+			}
+			
+			/*
+			 * The server keeps serving the other terminals.
+			 */
+			try (SocketChannel terminal = SocketChannel.open(address)) {
+				terminal.write(GasStationProtocol.getPriceRequest(2, GasType.REGULAR));
+				ByteBuffer response = readResponse(terminal);
+				assertEquals(2, response.getInt());
+				assertEquals(GasStationProtocol.OK, response.get());
+			}
+		}
+	}
+
+}
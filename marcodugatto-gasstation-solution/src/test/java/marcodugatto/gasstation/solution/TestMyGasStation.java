@@ -4,8 +4,13 @@ import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.bigpoint.assessment.gasstation.GasPump;
 import net.bigpoint.assessment.gasstation.GasType;
@@ -187,4 +192,72 @@ public class TestMyGasStation {
 		assertEquals(1.0, testMyGasStation.getPrice(GasType.REGULAR));
 	}
 	
+	@Test
+	public void testReservedPumpIsNotTakenByOtherCustomers() throws Exception {
+		MyGasStation testMyGasStation = new MyGasStation();
+		int id = testMyGasStation.getPumpRegistry().add(new GasPump(GasType.REGULAR, 100.0));
+		testMyGasStation.setPrice(GasType.REGULAR, 1.0);
+		
+		/*
+		 * Reserve the pump for another (starving) customer and release it after a while.
+		 */
+		PumpRegistry.Pump pump = testMyGasStation.getPumpRegistry().snapshot()[0];
+		Thread starvingCustomer = new Thread();
+		assertTrue(pump.reserve(starvingCustomer));
+		assertEquals(id, pump.getId());
+		
+		Thread releaser = new Thread(() -> {
+			try {
+				Thread.sleep(300);
+			} catch (InterruptedException e) {
+				// Ignore
+			}
+			pump.releaseReservation(starvingCustomer);
+		});
+		
+		long startMillis = System.currentTimeMillis();
+		releaser.start();
+		testMyGasStation.buyGas(GasType.REGULAR, 0.1, 1.1);
+		
+		assertTrue(System.currentTimeMillis() - startMillis >= 300);
+		assertEquals(1, testMyGasStation.getNumberOfSales());
+	}
+	
+	@Test
+	public void testLargeOrderIsNotStarvedBySmallOrders() throws Exception {
+		MyGasStation testMyGasStation = new MyGasStation();
+		testMyGasStation.addGasPump(new GasPump(GasType.DIESEL, 1000.0));
+		testMyGasStation.setPrice(GasType.DIESEL, 1.0);
+		testMyGasStation.setStarvationThreshold(100, TimeUnit.MILLISECONDS);
+		
+		/*
+		 * Keep the only pump busy with a continuous stream of small orders.
+		 */
+		AtomicBoolean trading = new AtomicBoolean(true);
+		ExecutorService smallCustomers = Executors.newFixedThreadPool(4);
+		for (int i = 0; i < 4; i++) {
+			smallCustomers.submit(() -> {
+				while(trading.get()) {
+					testMyGasStation.buyGas(GasType.DIESEL, 0.2, 1.1);
+				}
+				return null;
+			});
+		}
+		
+		Thread.sleep(100);
+		
+		/*
+		 * The large order waits at most the starvation threshold plus one small sale, then pumps for 500 ms.
+		 */
+		long startMillis = System.currentTimeMillis();
+		assertEquals(5.0, testMyGasStation.buyGas(GasType.DIESEL, 5.0, 1.1));
+		long elapsedMillis = System.currentTimeMillis() - startMillis;
+		
+		trading.set(false);
+		smallCustomers.shutdown();
+		smallCustomers.awaitTermination(5, TimeUnit.SECONDS);
+		
+		assertTrue(elapsedMillis < 1500, "large order waited " + elapsedMillis + " ms");
+	}
+	
 }
@@ -0,0 +1,244 @@
+package marcodugatto.gasstation.solution;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+public class TestPumpRegistry {
+	
+	@Test
+	public void testAddAndRetire() {
+		PumpRegistry testPumpRegistry = new PumpRegistry();
+		int firstId = testPumpRegistry.add(new GasPump(GasType.REGULAR, 100.0));
+		int[] otherIds = testPumpRegistry.addAll(Arrays.asList(new GasPump(GasType.SUPER, 50.0), new GasPump(GasType.DIESEL, 80.0)));
+		
+		assertEquals(3, testPumpRegistry.size());
+		assertEquals(2, otherIds.length);
+		
+		PumpRegistry.Pump[] beforeRetire = testPumpRegistry.snapshot();
+		
+		assertTrue(testPumpRegistry.retire(otherIds[0]));
+		assertFalse(testPumpRegistry.retire(otherIds[0]));
+		
+		assertEquals(2, testPumpRegistry.size());
+		assertEquals(firstId, testPumpRegistry.snapshot()[0].getId());
+		assertEquals(otherIds[1], testPumpRegistry.snapshot()[1].getId());
+		
+		/*
+		 * A snapshot taken before the change is not modified, but sees the pump as retired.
+		 */
+		assertEquals(3, beforeRetire.length);
+		assertTrue(beforeRetire[1].isRetired());
+	}
+	
+	@Test
+	public void testReservationsAreServedInOrder() throws Exception {
+		PumpRegistry testPumpRegistry = new PumpRegistry();
+		testPumpRegistry.add(new GasPump(GasType.REGULAR, 100.0));
+		PumpRegistry.Pump pump = testPumpRegistry.snapshot()[0];
+		
+		Thread firstCustomer = Thread.currentThread();
+		Thread otherCustomer = new Thread();
+		assertTrue(pump.reserve(firstCustomer));
+		
+		/*
+		 * The second starving customer waits in line until the first one releases its reservation.
+		 */
+		CountDownLatch served = new CountDownLatch(1);
+		Thread secondCustomer = new Thread(() -> {
+			assertFalse(pump.reserve(Thread.currentThread()));
+			pump.awaitReservation(Thread.currentThread());
+			served.countDown();
+		});
+		secondCustomer.start();
+		
+		for (int i = 0; i < 100 && pump.getReservations() < 2; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, pump.getReservations());
+		pump.reserve(otherCustomer);
+		
+		assertFalse(served.await(200, TimeUnit.MILLISECONDS));
+		assertTrue(pump.isAvailableTo(firstCustomer));
+		assertFalse(pump.isAvailableTo(otherCustomer));
+		
+		pump.releaseReservation(firstCustomer);
+		assertTrue(served.await(5, TimeUnit.SECONDS));
+		assertTrue(pump.isAvailableTo(secondCustomer));
+		
+		pump.releaseReservation(secondCustomer);
+		assertTrue(pump.isAvailableTo(otherCustomer));
+		
+		pump.releaseReservation(otherCustomer);
+		assertEquals(0, pump.getReservations());
+	}
+	
+	@Test
+	public void testLoadLayout() throws Exception {
+		Path layout = Files.createTempFile("layout", ".csv");
+		Files.write(layout, "# type,liters\nREGULAR,100\n\nDIESEL, 500.5\n".getBytes(StandardCharsets.UTF_8));
+		
+		MyGasStation testMyGasStation = new MyGasStation();
+		int[] ids = testMyGasStation.getPumpRegistry().loadLayout(layout);
+		Files.delete(layout);
+		
+		assertEquals(2, ids.length);
+		assertEquals(2, testMyGasStation.getGasPumps().size());
+		assertEquals(500.5, ((GasPump) testMyGasStation.getGasPumps().toArray()[1]).getRemainingAmount());
+	}
+	
+	@Test
+	public void testInvalidLayoutAddsNothing() throws Exception {
+		Path layout = Files.createTempFile("layout", ".csv");
+		Files.write(layout, "REGULAR,100\nKEROSENE,200\n".getBytes(StandardCharsets.UTF_8));
+		
+		PumpRegistry testPumpRegistry = new PumpRegistry();
+		assertThrows(IllegalArgumentException.class, () -> testPumpRegistry.loadLayout(layout));
+		Files.delete(layout);
+		
+		assertEquals(0, testPumpRegistry.size());
+	}
+	
+	@Test
+	public void testInvalidAmountsAreRejected() throws Exception {
+		PumpRegistry testPumpRegistry = new PumpRegistry();
+		
+		for (String amount : new String[] { "-10", "NaN", "Infinity" }) {
+			Path layout = Files.createTempFile("layout", ".csv");
+			Files.write(layout, ("REGULAR,100\nDIESEL," + amount + "\n").getBytes(StandardCharsets.UTF_8));
+			
+			assertThrows(IllegalArgumentException.class, () -> testPumpRegistry.loadLayout(layout));
+			Files.delete(layout);
+		}
+		
+		assertEquals(0, testPumpRegistry.size());
+	}
+	
+	@Test
+	public void testRetiredPumpIsNotUsed() {
+		MyGasStation testMyGasStation = new MyGasStation();
+		int id = testMyGasStation.getPumpRegistry().add(new GasPump(GasType.REGULAR, 100.0));
+		testMyGasStation.setPrice(GasType.REGULAR, 1.0);
+		
+		testMyGasStation.getPumpRegistry().retire(id);
+		
+		assertThrows(NotEnoughGasException.class, () -> testMyGasStation.buyGas(GasType.REGULAR, 1.0, 1.1));
+	}
+	
+	@Test
+	public void testRetirePumpDuringSale() throws Exception {
+		MyGasStation testMyGasStation = new MyGasStation();
+		PumpRegistry testPumpRegistry = testMyGasStation.getPumpRegistry();
+		int retiredId = testPumpRegistry.add(new GasPump(GasType.REGULAR, 100.0));
+		PumpRegistry.Pump retiredPump = testPumpRegistry.snapshot()[0];
+		testMyGasStation.setPrice(GasType.REGULAR, 1.0);
+		
+		/*
+		 * Pumping 5 liters takes half a second: retire the pump while it is in use.
+		 */
+		ExecutorService customers = Executors.newSingleThreadExecutor();
+		Future<Double> sale = customers.submit(() -> testMyGasStation.buyGas(GasType.REGULAR, 5.0, 1.1));
+		for (int i = 0; i < 100 && !retiredPump.getLock().isLocked(); i++) {
+			Thread.sleep(10);
+		}
+		assertTrue(retiredPump.getLock().isLocked());
+		
+		assertTrue(testPumpRegistry.retire(retiredId));
+		GasPump newPump = new GasPump(GasType.REGULAR, 10.0);
+		testPumpRegistry.add(newPump);
+		
+		/*
+		 * The next customer goes to the new pump instead of waiting for the retired one.
+		 */
+		assertEquals(1.0, testMyGasStation.buyGas(GasType.REGULAR, 1.0, 1.1));
+		assertFalse(sale.isDone());
+		
+		assertEquals(5.0, sale.get(10, TimeUnit.SECONDS).doubleValue());
+		customers.shutdown();
+		
+		assertEquals(95.0, retiredPump.getGasPump().getRemainingAmount());
+		assertEquals(9.0, newPump.getRemainingAmount());
+		assertEquals(2, testMyGasStation.getNumberOfSales());
+		assertEquals(1, testMyGasStation.getGasPumps().size());
+	}
+	
+	@Test
+	public void testPumpSwapWhileCustomerIsWaiting() throws Exception {
+		MyGasStation testMyGasStation = new MyGasStation();
+		PumpRegistry testPumpRegistry = testMyGasStation.getPumpRegistry();
+		int oldId = testPumpRegistry.add(new GasPump(GasType.REGULAR, 100.0));
+		PumpRegistry.Pump oldPump = testPumpRegistry.snapshot()[0];
+		testMyGasStation.setPrice(GasType.REGULAR, 1.0);
+		
+		/*
+		 * A customer pumps for half a second while another one waits for the pump.
+		 */
+		ExecutorService customers = Executors.newFixedThreadPool(2);
+		Future<Double> firstSale = customers.submit(() -> testMyGasStation.buyGas(GasType.REGULAR, 5.0, 1.1));
+		for (int i = 0; i < 100 && !oldPump.getLock().isLocked(); i++) {
+			Thread.sleep(10);
+		}
+		Future<Double> waitingSale = customers.submit(() -> testMyGasStation.buyGas(GasType.REGULAR, 1.0, 1.1));
+		Thread.sleep(50);
+		
+		/*
+		 * The operator swaps the pump: the waiting customer is served by the new one, without waiting for the first sale.
+		 */
+		GasPump newPump = new GasPump(GasType.REGULAR, 100.0);
+		testPumpRegistry.add(newPump);
+		testPumpRegistry.retire(oldId);
+		
+		assertEquals(1.0, waitingSale.get(10, TimeUnit.SECONDS).doubleValue());
+		assertFalse(firstSale.isDone());
+		assertEquals(99.0, newPump.getRemainingAmount());
+		
+		assertEquals(5.0, firstSale.get(10, TimeUnit.SECONDS).doubleValue());
+		customers.shutdown();
+		
+		assertEquals(95.0, oldPump.getGasPump().getRemainingAmount());
+		assertEquals(0, testMyGasStation.getNumberOfCancellationsNoGas());
+	}
+	
+	@Test
+	public void testAddPumpsWhileTrading() throws Exception {
+		MyGasStation testMyGasStation = new MyGasStation();
+		testMyGasStation.addGasPump(new GasPump(GasType.DIESEL, 100.0));
+		testMyGasStation.setPrice(GasType.DIESEL, 1.0);
+		
+		ExecutorService customers = Executors.newFixedThreadPool(4);
+		Future<?>[] sales = new Future<?>[8];
+		for (int i = 0; i < sales.length; i++) {
+			sales[i] = customers.submit(() -> testMyGasStation.buyGas(GasType.DIESEL, 0.5, 1.1));
+		}
+		
+		for (int i = 0; i < 100; i++) {
+			testMyGasStation.addGasPump(new GasPump(GasType.SUPER, 10.0));
+		}
+		
+		for (Future<?> sale : sales) {
+			sale.get(10, TimeUnit.SECONDS);
+		}
+		customers.shutdown();
+		
+		assertEquals(8, testMyGasStation.getNumberOfSales());
+		assertEquals(101, testMyGasStation.getGasPumps().size());
+	}
+
+}
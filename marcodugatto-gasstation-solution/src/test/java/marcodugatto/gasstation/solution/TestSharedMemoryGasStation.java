@@ -0,0 +1,189 @@
+package marcodugatto.gasstation.solution;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+public class TestSharedMemoryGasStation {
+	
+	/**
+	 * Create an empty station file; deleting it first lets open() initialise it.
+	 */
+	private static Path newStationFile() throws IOException {
+		Path stationFile = Files.createTempFile("gasstation", ".shm");
+		Files.delete(stationFile);
+		stationFile.toFile().deleteOnExit();
+		return stationFile;
+	}
+	
+	@Test
+	public void testStateIsSharedBetweenMappings() throws Exception {
+		Path stationFile = newStationFile();
+		SharedMemoryGasStation firstController = SharedMemoryGasStation.open(stationFile, 4);
+		SharedMemoryGasStation secondController = SharedMemoryGasStation.open(stationFile, 4);
+		
+		firstController.addGasPump(new GasPump(GasType.REGULAR, 100.0));
+		firstController.setPrice(GasType.REGULAR, 1.0);
+		
+		assertEquals(1, secondController.getGasPumps().size());
+		assertEquals(1.0, secondController.getPrice(GasType.REGULAR));
+		
+		assertEquals(10.0, secondController.buyGas(GasType.REGULAR, 10.0, 1.1));
+		
+		assertEquals(90.0, firstController.getGasPumps().iterator().next().getRemainingAmount());
+		assertEquals(1, firstController.getNumberOfSales());
+		assertEquals(10.0, firstController.getRevenue());
+	}
+	
+	@Test
+	public void testCancellations() throws Exception {
+		SharedMemoryGasStation testStation = SharedMemoryGasStation.open(newStationFile(), 4);
+		testStation.addGasPump(new GasPump(GasType.DIESEL, 100.0));
+		testStation.setPrice(GasType.DIESEL, 1.0);
+		
+		assertThrows(GasTooExpensiveException.class, () -> testStation.buyGas(GasType.DIESEL, 10.0, 0.9));
+		assertThrows(NotEnoughGasException.class, () -> testStation.buyGas(GasType.DIESEL, 200.0, 1.1));
+		assertThrows(NotEnoughGasException.class, () -> testStation.buyGas(GasType.SUPER, 1.0, 1.1));
+		
+		assertEquals(1, testStation.getNumberOfCancellationsTooExpensive());
+		assertEquals(2, testStation.getNumberOfCancellationsNoGas());
+	}
+	
+	@Test
+	public void testPumpIsOwnedByOneSaleAtATime() throws Exception {
+		Path stationFile = newStationFile();
+		SharedMemoryGasStation firstController = SharedMemoryGasStation.open(stationFile, 4);
+		SharedMemoryGasStation secondController = SharedMemoryGasStation.open(stationFile, 4);
+		firstController.addGasPump(new GasPump(GasType.SUPER, 10.0));
+		
+		/*
+		 * Only one of the two sales fits in the pump, whichever controller gets it first.
+		 */
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		for (SharedMemoryGasStation controller : new SharedMemoryGasStation[] { firstController, secondController }) {
+			executor.submit(() -> {
+				try {
+					controller.buyGas(GasType.SUPER, 6.0, 1.0);
+				} catch (NotEnoughGasException | GasTooExpensiveException e) {
+					// Ignore
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		
+		assertEquals(1, firstController.getNumberOfSales());
+		assertEquals(1, secondController.getNumberOfCancellationsNoGas());
+		assertEquals(4.0, secondController.getGasPumps().iterator().next().getRemainingAmount());
+	}
+	
+	/**
+	 * Write the owner of a pump directly into the station file, as a controller that died while pumping would have left it.
+	 */
+	private static void setOwner(Path stationFile, int pumpIndex, long ownerToken) throws IOException {
+		try (FileChannel channel = FileChannel.open(stationFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer memory = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+			memory.order(ByteOrder.nativeOrder()).putLong(SharedMemoryGasStation.ownerOffset(pumpIndex), ownerToken);
+		}
+	}
+	
+	@Test
+	public void testPumpOfDeadControllerIsTakenOver() throws Exception {
+		Path stationFile = newStationFile();
+		SharedMemoryGasStation testStation = SharedMemoryGasStation.open(stationFile, 4);
+		testStation.addGasPump(new GasPump(GasType.REGULAR, 100.0));
+		testStation.setPrice(GasType.REGULAR, 1.0);
+		
+		/*
+		 * A child JVM which has exited stands for a controller that died while owning the pump.
+		 */
+		Process deadController = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-version")
+				.redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+				.start();
+		long deadOwner = SharedMemoryGasStation.ownerToken(deadController.pid(), deadController.info().startInstant().map(Instant::getEpochSecond).orElse(0L));
+		deadController.waitFor();
+		
+		setOwner(stationFile, 0, deadOwner);
+		assertEquals(10.0, testStation.buyGas(GasType.REGULAR, 10.0, 1.0));
+		
+		/*
+		 * A live process whose pid was the one of the dead owner: the start time tells them apart.
+		 */
+		ProcessHandle self = ProcessHandle.current();
+		long earlierStart = self.info().startInstant().map(Instant::getEpochSecond).orElse(0L) - 60;
+		
+		setOwner(stationFile, 0, SharedMemoryGasStation.ownerToken(self.pid(), earlierStart));
+		assertEquals(10.0, testStation.buyGas(GasType.REGULAR, 10.0, 1.0));
+		
+		assertEquals(2, testStation.getNumberOfSales());
+		assertEquals(80.0, testStation.getGasPumps().iterator().next().getRemainingAmount());
+	}
+	
+	@Test
+	public void testStationIsFull() throws Exception {
+		SharedMemoryGasStation testStation = SharedMemoryGasStation.open(newStationFile(), 1);
+		testStation.addGasPump(new GasPump(GasType.DIESEL, 100.0));
+		
+		assertThrows(IllegalStateException.class, () -> testStation.addGasPump(new GasPump(GasType.DIESEL, 100.0)));
+		assertEquals(1, testStation.getGasPumps().size());
+	}
+	
+	@Test
+	public void testOpenRejectsOtherFiles() throws Exception {
+		Path otherFile = Files.createTempFile("gasstation", ".txt");
+		byte[] otherContent = "Not a gas station. ".repeat(16).getBytes(StandardCharsets.US_ASCII);
+		Files.write(otherFile, otherContent);
+		
+		assertThrows(IOException.class, () -> SharedMemoryGasStation.open(otherFile, 4));
+		assertArrayEquals(otherContent, Files.readAllBytes(otherFile));
+		
+		/*
+		 * A file too small for the header is rejected without being extended.
+		 */
+		byte[] smallContent = "small\n".getBytes(StandardCharsets.US_ASCII);
+		Files.write(otherFile, smallContent);
+		
+		assertThrows(IOException.class, () -> SharedMemoryGasStation.open(otherFile, 4));
+		assertArrayEquals(smallContent, Files.readAllBytes(otherFile));
+		
+		Files.delete(otherFile);
+	}
+	
+	@Test
+	public void testHalfInitialisedFileIsInitialisedAgain() throws Exception {
+		
+		/*
+		 * A controller died after sizing the file but before writing its magic number.
+		 */
+		Path stationFile = newStationFile();
+		Files.write(stationFile, new byte[1024]);
+		
+		SharedMemoryGasStation testStation = SharedMemoryGasStation.open(stationFile, 4);
+		testStation.addGasPump(new GasPump(GasType.DIESEL, 100.0));
+		
+		assertEquals(1, SharedMemoryGasStation.open(stationFile, 8).getGasPumps().size());
+	}
+
+}
@@ -0,0 +1,89 @@
+package marcodugatto.gasstation.solution;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+public class TestTraceReader {
+	
+	private static Path writeTrace(String content) throws IOException {
+		Path trace = Files.createTempFile("trace", ".csv");
+		trace.toFile().deleteOnExit();
+		Files.write(trace, content.getBytes(StandardCharsets.US_ASCII));
+		return trace;
+	}
+	
+	@Test
+	public void testRead() throws IOException {
+		Path trace = writeTrace("# timestamp,type,liters,max price,outcome\n"
+				+ "1000,REGULAR,10.5,1.9,SALE\r\n"
+				+ "\n"
+				+ "1500,DIESEL,30,1.2,CANCELLATION_TOO_EXPENSIVE\n"
+				+ "2000,SUPER,5,2.0");
+		
+		List<TraceRecord> records = new ArrayList<TraceRecord>();
+		new TraceReader().read(trace, records::add);
+		
+		assertEquals(3, records.size());
+		assertEquals(1000L, records.get(0).getTimestamp());
+		assertEquals(GasType.REGULAR, records.get(0).getGasType());
+		assertEquals(10.5, records.get(0).getAmountInLiters());
+		assertEquals(1.9, records.get(0).getMaxPricePerLiter());
+		assertEquals(TransactionEvent.Kind.SALE, records.get(0).getRecordedOutcome());
+		assertEquals(TransactionEvent.Kind.CANCELLATION_TOO_EXPENSIVE, records.get(1).getRecordedOutcome());
+		assertEquals(GasType.SUPER, records.get(2).getGasType());
+		assertNull(records.get(2).getRecordedOutcome());
+	}
+	
+	@Test
+	public void testLinesSpanningWindows() throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			content.append(i).append(",DIESEL,").append(i).append(".25,1.5,SALE\n");
+		}
+		Path trace = writeTrace(content.toString());
+		
+		/*
+		 * A window smaller than two lines forces most lines to be split between windows.
+		 */
+		List<TraceRecord> records = new ArrayList<TraceRecord>();
+		new TraceReader(40).read(trace, records::add);
+		
+		assertEquals(100, records.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals((long) i, records.get(i).getTimestamp());
+			assertEquals(i + 0.25, records.get(i).getAmountInLiters());
+		}
+	}
+	
+	@Test
+	public void testLineLongerThanWindow() throws IOException {
+		Path trace = writeTrace("1000,REGULAR,10.5,1.9,SALE\n1001,REGULAR,10.5,1.9,SALE\n");
+		
+		assertThrows(IOException.class, () -> new TraceReader(10).read(trace, record -> { }));
+	}
+	
+	@Test
+	public void testInvalidRecord() throws IOException {
+		Path trace = writeTrace("1000,KEROSENE,10.5,1.9\n");
+		
+		assertThrows(IllegalArgumentException.class, () -> new TraceReader().read(trace, record -> { }));
+		
+		/*
+		 * Price changes are events, not transaction outcomes.
+		 */
+		assertThrows(IllegalArgumentException.class, () -> TraceRecord.parse("1000,REGULAR,10.5,1.9,PRICE_CHANGE"));
+	}
+
+}
@@ -0,0 +1,88 @@
+package marcodugatto.gasstation.solution;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+
+public class TestTraceReplayer {
+	
+	private static MyGasStation newGasStation() {
+		MyGasStation testMyGasStation = new MyGasStation();
+		testMyGasStation.addGasPump(new GasPump(GasType.REGULAR, 1.0));
+		testMyGasStation.setPrice(GasType.REGULAR, 1.0);
+		return testMyGasStation;
+	}
+	
+	private static Path writeTrace(String content) throws Exception {
+		Path trace = Files.createTempFile("trace", ".csv");
+		trace.toFile().deleteOnExit();
+		Files.write(trace, content.getBytes(StandardCharsets.US_ASCII));
+		return trace;
+	}
+	
+	@Test
+	public void testReplayComparesOutcomes() throws Exception {
+		Path trace = writeTrace("0,REGULAR,0.1,1.5,SALE\n"
+				+ "10,REGULAR,0.1,0.5,CANCELLATION_TOO_EXPENSIVE\n"
+				+ "20,REGULAR,5.0,1.5,SALE\n"
+				+ "30,DIESEL,0.1,1.5,CANCELLATION_NO_GAS\n");
+		
+		MyGasStation testMyGasStation = newGasStation();
+		TraceReplayer.Report report = new TraceReplayer(testMyGasStation, TraceReplayer.AS_FAST_AS_POSSIBLE, 1).replay(trace);
+		
+		assertEquals(4L, report.getTransactions());
+		assertEquals(2L, report.getRecordedOutcomes(TransactionEvent.Kind.SALE));
+		assertEquals(1L, report.getReplayedOutcomes(TransactionEvent.Kind.SALE));
+		assertEquals(2L, report.getReplayedOutcomes(TransactionEvent.Kind.CANCELLATION_NO_GAS));
+		assertEquals(1L, report.getReplayedOutcomes(TransactionEvent.Kind.CANCELLATION_TOO_EXPENSIVE));
+		assertEquals(1L, report.getDifferentOutcomes());
+		assertEquals(0L, report.getErrors());
+		assertEquals(1, testMyGasStation.getNumberOfSales());
+	}
+	
+	@Test
+	public void testReplayAtAcceleratedSpeed() throws Exception {
+		Path trace = writeTrace("0,REGULAR,0.01,1.5,SALE\n"
+				+ "1000,REGULAR,0.01,1.5,SALE\n");
+		
+		long startMillis = System.currentTimeMillis();
+		TraceReplayer.Report report = new TraceReplayer(newGasStation(), 4.0, 2).replay(trace);
+		long elapsedMillis = System.currentTimeMillis() - startMillis;
+		
+		/*
+		 * One second of recorded traffic replayed four times faster.
+		 */
+		assertTrue(elapsedMillis >= 250, "replay too fast: " + elapsedMillis + " ms");
+		assertTrue(elapsedMillis < 1000, "replay too slow: " + elapsedMillis + " ms");
+		assertEquals(0L, report.getDifferentOutcomes());
+		assertEquals(2.0, report.getRecordedThroughput());
+	}
+	
+	@Test
+	public void testReplayReportsLateTransactions() throws Exception {
+		Path trace = writeTrace("0,REGULAR,5.0,1.5,SALE\n"
+				+ "10,REGULAR,0.01,1.5,SALE\n");
+		
+		MyGasStation testMyGasStation = new MyGasStation();
+		testMyGasStation.addGasPump(new GasPump(GasType.REGULAR, 10.0));
+		testMyGasStation.setPrice(GasType.REGULAR, 1.0);
+		
+		/*
+		 * The only customer thread pumps for half a second, so the second transaction can't start on time.
+		 */
+		TraceReplayer.Report report = new TraceReplayer(testMyGasStation, 1.0, 1).replay(trace);
+		
+		assertTrue(report.getLateDispatches() >= 1);
+		assertTrue(report.getMaxDispatchDelayMillis() >= 400, "max delay: " + report.getMaxDispatchDelayMillis() + " ms");
+		assertEquals(0L, report.getDifferentOutcomes());
+	}
+
+}
@@ -0,0 +1,142 @@
+package marcodugatto.gasstation.solution;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+
+public class TestTransactionEventPublisher {
+	
+	/**
+	 * Subscriber collecting every event it receives, requesting them one at a time.
+	 */
+	private static class CollectingSubscriber implements Flow.Subscriber<TransactionEvent> {
+		
+		private final List<TransactionEvent> events = new CopyOnWriteArrayList<TransactionEvent>();
+		
+		private final CountDownLatch expectedEvents;
+		
+		private Flow.Subscription subscription;
+		
+		CollectingSubscriber(int numberOfExpectedEvents) {
+			expectedEvents = new CountDownLatch(numberOfExpectedEvents);
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(1);
+		}
+
+		@Override
+		public void onNext(TransactionEvent event) {
+			events.add(event);
+			expectedEvents.countDown();
+			subscription.request(1);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			// Ignore
+		}
+
+		@Override
+		public void onComplete() {
+			// Ignore
+		}
+	}
+	
+	@Test
+	public void testEventsArePublished() throws InterruptedException {
+		MyGasStation testMyGasStation = new MyGasStation();
+		testMyGasStation.addGasPump(new GasPump(GasType.REGULAR, 100.0));
+		
+		CollectingSubscriber subscriber = new CollectingSubscriber(4);
+		testMyGasStation.getTransactionEvents().subscribe(subscriber);
+		
+		testMyGasStation.setPrice(GasType.REGULAR, 1.0);
+		
+		try {
+			testMyGasStation.buyGas(GasType.REGULAR, 10.0, 1.1);
+		} catch (Exception e) {
+			// Ignore
+		}
+		try {
+			testMyGasStation.buyGas(GasType.REGULAR, 10.0, 0.9);
+		} catch (Exception e) {
+			// Ignore
+		}
+		try {
+			testMyGasStation.buyGas(GasType.REGULAR, 200.0, 1.1);
+		} catch (Exception e) {
+			// Ignore
+		}
+		
+		assertTrue(subscriber.expectedEvents.await(5, TimeUnit.SECONDS));
+		assertEquals(TransactionEvent.Kind.PRICE_CHANGE, subscriber.events.get(0).getKind());
+		assertEquals(TransactionEvent.Kind.SALE, subscriber.events.get(1).getKind());
+		assertEquals(10.0, subscriber.events.get(1).getTotalPrice());
+		assertEquals(TransactionEvent.Kind.CANCELLATION_TOO_EXPENSIVE, subscriber.events.get(2).getKind());
+		assertEquals(TransactionEvent.Kind.CANCELLATION_NO_GAS, subscriber.events.get(3).getKind());
+		
+		/*
+		 * The price reported for the sale is the one the customer was charged.
+		 */
+		assertEquals(subscriber.events.get(1).getTotalPrice(), subscriber.events.get(1).getPricePerLiter() * subscriber.events.get(1).getAmountInLiters());
+		
+		for (int i = 0; i < 4; i++) {
+			assertEquals(i + 1L, subscriber.events.get(i).getSequenceNumber());
+		}
+	}
+	
+	@Test
+	public void testSlowSubscriberDoesNotBlockPublishing() throws Exception {
+		TransactionEventPublisher testPublisher = new TransactionEventPublisher(Executors.newSingleThreadExecutor(), 4);
+		
+		/*
+		 * This subscriber doesn't request anything until told to, so its buffer fills up immediately.
+		 */
+		CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<Flow.Subscription>();
+		List<TransactionEvent> events = new CopyOnWriteArrayList<TransactionEvent>();
+		CountDownLatch bufferedEvents = new CountDownLatch(4);
+		CountDownLatch expectedEvents = new CountDownLatch(5);
+		testPublisher.subscribe(new Flow.Subscriber<TransactionEvent>() {
+			public void onSubscribe(Flow.Subscription newSubscription) { subscription.complete(newSubscription); }
+			public void onNext(TransactionEvent event) { events.add(event); bufferedEvents.countDown(); expectedEvents.countDown(); }
+			public void onError(Throwable throwable) { }
+			public void onComplete() { }
+		});
+		
+		for (int i = 0; i < 100; i++) {
+			testPublisher.publish(TransactionEvent.Kind.PRICE_CHANGE, GasType.DIESEL, 0.0, i, 0.0);
+		}
+		
+		assertEquals(96L, testPublisher.getDroppedEvents());
+		
+		/*
+		 * Once the subscriber catches up, the dropped events show up as a gap in the sequence numbers.
+		 */
+		subscription.get(5, TimeUnit.SECONDS).request(Long.MAX_VALUE);
+		assertTrue(bufferedEvents.await(5, TimeUnit.SECONDS));
+		testPublisher.publish(TransactionEvent.Kind.PRICE_CHANGE, GasType.DIESEL, 0.0, 100, 0.0);
+		
+		assertTrue(expectedEvents.await(5, TimeUnit.SECONDS));
+		assertEquals(1L, events.get(0).getSequenceNumber());
+		assertEquals(4L, events.get(3).getSequenceNumber());
+		assertEquals(101L, events.get(4).getSequenceNumber());
+		
+		testPublisher.close();
+	}
+
+}